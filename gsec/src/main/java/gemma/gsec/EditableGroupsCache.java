@@ -0,0 +1,241 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.stereotype.Component;
+
+import gemma.gsec.acl.domain.AclChangedEvent;
+import gemma.gsec.authentication.UserManagerEvent;
+import gemma.gsec.model.UserGroup;
+
+/**
+ * Remembers, per user, which groups the user can edit, as worked out by
+ * {@link SecurityService#getGroupsUserCanEdit(String)}, and the ACL object identity of each group, which is the same
+ * for everybody. Everything is dropped when users, groups or memberships change ({@link UserManagerEvent}); the
+ * answers are also dropped when the ACL of a group changes ({@link AclChangedEvent}).
+ * <p>
+ * Since UserManager implementations may not publish those events, nothing is used for more than
+ * {@link #setTimeToLive(int) timeToLive} seconds, and the least recently used users are dropped once there are more
+ * than {@link #setMaxSize(int) maxSize}.
+ *
+ * @author paul
+ * @version $Id$
+ */
+@Component
+public class EditableGroupsCache implements ApplicationListener<ApplicationEvent> {
+
+    private static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final int DEFAULT_TIME_TO_LIVE = 60;
+
+    private static Log log = LogFactory.getLog( EditableGroupsCache.class );
+
+    private final Map<String, Answers> byUser = new LinkedHashMap<String, Answers>( 16, 0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Answers> eldest ) {
+            return size() > maxSize;
+        }
+    };
+
+    /*
+     * Incremented on every change, so answers worked out while a change happened aren't kept.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Identities groupIdentities = new Identities();
+
+    /*
+     * Whether ACL object identity types are groups, to avoid repeated class lookups.
+     */
+    private final ConcurrentMap<String, Boolean> groupTypes = new ConcurrentHashMap<>();
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE * 1000L;
+
+    /**
+     * @param userName
+     * @return the answers known for the user, as group name to whether the user can edit it; empty if none.
+     */
+    public synchronized Map<String, Boolean> get( String userName ) {
+        Answers known = byUser.get( userName );
+        if ( known == null ) return Collections.emptyMap();
+        if ( isExpired( known.created ) ) {
+            byUser.remove( userName );
+            return Collections.emptyMap();
+        }
+        return known.editable;
+    }
+
+    /**
+     * @return the value to pass to {@link #put}, read before working out the answers.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return group name to the object identity of the group, for the groups resolved so far. Use
+     *         {@link #putGroupIdentities} to add to it.
+     */
+    public Map<String, ObjectIdentity> getGroupIdentities() {
+        Identities ids = this.groupIdentities;
+        if ( isExpired( ids.created ) ) {
+            synchronized ( this ) {
+                if ( this.groupIdentities == ids ) {
+                    this.groupIdentities = new Identities();
+                }
+                ids = this.groupIdentities;
+            }
+        }
+        return Collections.unmodifiableMap( ids.byName );
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    public void onApplicationEvent( ApplicationEvent event ) {
+        if ( event instanceof UserManagerEvent ) {
+            clear( event, true );
+        } else if ( event instanceof AclChangedEvent ) {
+            ObjectIdentity oi = ( ( AclChangedEvent ) event ).getObjectIdentity();
+            if ( oi == null || isGroupType( oi.getType() ) ) {
+                clear( event, false );
+            }
+        }
+    }
+
+    /**
+     * Add to the answers known for the user, unless something changed since they were worked out.
+     *
+     * @param userName
+     * @param answers group name to whether the user can edit it
+     * @param since the generation read before working out the answers
+     */
+    public synchronized void put( String userName, Map<String, Boolean> answers, long since ) {
+        if ( generation.get() != since ) return;
+        Answers known = byUser.get( userName );
+        if ( known == null || isExpired( known.created ) ) {
+            byUser.put( userName, new Answers( answers ) );
+        } else {
+            // the answers expire together, with the oldest of them.
+            known.add( answers );
+        }
+    }
+
+    /**
+     * Add to the group identities, unless something changed since they were worked out.
+     *
+     * @param identities group name to the object identity of the group
+     * @param since the generation read before resolving the groups
+     */
+    public synchronized void putGroupIdentities( Map<String, ObjectIdentity> identities, long since ) {
+        if ( generation.get() != since ) return;
+        this.groupIdentities.byName.putAll( identities );
+    }
+
+    /**
+     * @param maxSize the number of users to keep answers for; default is 1000.
+     */
+    public synchronized void setMaxSize( int maxSize ) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param timeToLive how long, in seconds, answers and group identities are used; default is 60.
+     */
+    public void setTimeToLive( int timeToLive ) {
+        this.timeToLive = timeToLive * 1000L;
+    }
+
+    /**
+     * @param event
+     * @param groupsChanged if the group identities should be dropped too
+     */
+    private synchronized void clear( ApplicationEvent event, boolean groupsChanged ) {
+        if ( log.isDebugEnabled() ) log.debug( "Dropping editable groups: " + event );
+        generation.incrementAndGet();
+        byUser.clear();
+        if ( groupsChanged ) {
+            this.groupIdentities = new Identities();
+        }
+    }
+
+    private boolean isExpired( long created ) {
+        return System.currentTimeMillis() - created > timeToLive;
+    }
+
+    /**
+     * @param type of an object identity
+     * @return true if it is a group, or if we can't tell.
+     */
+    private boolean isGroupType( String type ) {
+        Boolean isGroup = groupTypes.get( type );
+        if ( isGroup == null ) {
+            try {
+                isGroup = UserGroup.class.isAssignableFrom( Class.forName( type, false, getClass().getClassLoader() ) );
+            } catch ( ClassNotFoundException e ) {
+                isGroup = true;
+            }
+            groupTypes.put( type, isGroup );
+        }
+        return isGroup;
+    }
+
+    /**
+     * The answers for one user. The map is replaced, never changed, once handed out.
+     */
+    private static final class Answers {
+        final long created = System.currentTimeMillis();
+        Map<String, Boolean> editable;
+
+        Answers( Map<String, Boolean> answers ) {
+            this.editable = Collections.unmodifiableMap( new HashMap<>( answers ) );
+        }
+
+        void add( Map<String, Boolean> answers ) {
+            Map<String, Boolean> known = new HashMap<>( editable );
+            known.putAll( answers );
+            this.editable = Collections.unmodifiableMap( known );
+        }
+    }
+
+    private static final class Identities {
+        final Map<String, ObjectIdentity> byName = new ConcurrentHashMap<>();
+        final long created = System.currentTimeMillis();
+    }
+}
@@ -14,6 +14,7 @@
  */
 package gemma.gsec;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import gemma.gsec.model.Securable;
 import gemma.gsec.model.SecureValueObject;
+import gemma.gsec.util.AclQueryFragment;
 
 /**
  * @author paul
@@ -51,7 +53,8 @@ public interface SecurityService {
 
     /**
      * @param securables
-     * @return
+     * @return map of each securable to true if it is private but the current user (per the current authentication)
+     *         can read it.
      */
     public abstract <T extends Securable> Map<T, Boolean> areNonPublicButReadableByCurrentUser( Collection<T> securables );
 
@@ -109,6 +112,17 @@ public interface SecurityService {
     @Secured({ "ACL_SECURABLE_READ" })
     public abstract Collection<String> editableBy( Securable s );
 
+    /**
+     * Pageable version of {@link #editableBy(Securable)}.
+     *
+     * @param s
+     * @param offset index of the first user name to return
+     * @param limit maximum number of user names to return
+     * @return userNames who can edit the given securable, in alphabetical order.
+     */
+    @Secured({ "ACL_SECURABLE_READ" })
+    public abstract List<String> editableBy( Securable s, int offset, int limit );
+
     /**
      * Note that this method cannot be secured, but as it only reads permissions on a securable already in scope, it is
      * safe.
@@ -148,6 +162,18 @@ public interface SecurityService {
     @Secured("GROUP_ADMIN")
     public abstract Collection<Sid> getAvailableSids();
 
+    /**
+     * Paged listing of the available security ids, from an in-memory dictionary that is kept current as users and groups
+     * change. Only available to administrators.
+     *
+     * @param prefix only those whose user name or authority starts with this; null or blank for all
+     * @param offset index of the first SID to return
+     * @param limit maximum number of SIDs to return
+     * @return SIDs in alphabetical order of user name or authority.
+     */
+    @Secured("GROUP_ADMIN")
+    public abstract List<Sid> getAvailableSids( String prefix, int offset, int limit );
+
     public String getGroupAuthorityNameFromGroupName( String groupName );
 
     /**
@@ -180,8 +206,10 @@ public interface SecurityService {
     public abstract Collection<String> getGroupsReadableBy( Securable s );
 
     /**
+     * Answers are remembered per user until memberships or group ACLs change.
+     *
      * @param userName
-     * @return
+     * @return names of the groups, among those the current user can see, that the user can edit.
      */
     public abstract Collection<String> getGroupsUserCanEdit( String userName );
 
@@ -202,6 +230,18 @@ public interface SecurityService {
     @Secured("ACL_SECURABLE_COLLECTION_READ")
     public abstract <T extends Securable> Map<T, Sid> getOwners( Collection<T> securables );
 
+    /**
+     * What is needed to decorate value objects, from one load of the ACLs and one resolution of the SIDs.
+     *
+     * @param securables may contain nulls
+     * @param readPermissions any of which makes an object readable, with the same semantics as
+     *        {@link #hasPermission(List, List, List)}
+     * @param authentication
+     * @return summaries, in the same order as the securables; null for nulls and for objects that have no ACL.
+     */
+    public <T extends Securable> List<SecuritySummary> getSecuritySummaries( List<T> securables,
+            List<Permission> readPermissions, Authentication authentication );
+
     /**
      * Advanced. Determine if the given securables have the required permissions under the given authentication.
      * <p>
@@ -216,6 +256,50 @@ public interface SecurityService {
     public <T extends Securable> List<Boolean> hasPermission( List<T> sos, List<Permission> requiredPermissions,
             Authentication authentication );
 
+    /**
+     * A where-clause fragment, for an HQL query, that keeps only the entities the current user can read, so filtering
+     * (and paging and counting) can be done in the database. Parent ACLs are only followed to a configured depth; see
+     * {@link AclQueryFragment}.
+     *
+     * @param clazz of the securable entity
+     * @param alias of the entity in the query
+     * @return
+     */
+    public AclQueryFragment getReadableHqlFragment( Class<? extends Securable> clazz, String alias );
+
+    /**
+     * As {@link #getReadableHqlFragment(Class, String)}, for a native SQL query.
+     *
+     * @param clazz of the securable entity
+     * @param idColumn the (qualified) column holding the entity id in the query
+     * @return
+     */
+    public AclQueryFragment getReadableSqlFragment( Class<? extends Securable> clazz, String idColumn );
+
+    /**
+     * "Any of" check: true if any one of the permissions is granted on the object, each being checked on its own (so
+     * this is the same as checking them one at a time, but the SIDs are resolved, the ACL is read and its entries are
+     * scanned only once).
+     *
+     * @param s
+     * @param permissions any of which is enough, e.g. WRITE and ADMINISTRATION for editing
+     * @param authentication
+     * @return false if the object has no ACL
+     */
+    public boolean hasAnyPermission( Securable s, List<Permission> permissions, Authentication authentication );
+
+    /**
+     * Advanced. Bulk permission check for many securables against one set of SIDs. Each object identity is computed
+     * once, the ACLs are loaded together, and the evaluation does not allocate per object.
+     *
+     * @param securables may contain nulls, which are not granted
+     * @param requiredPermissions
+     * @param sids e.g. from the SidRetrievalStrategy for the current authentication
+     * @return bit i is set if permission is granted on the i-th securable. Objects that have no ACL are not granted.
+     */
+    public <T extends Securable> BitSet hasPermission( List<T> securables, List<Permission> requiredPermissions,
+            List<Sid> sids );
+
     /**
      * @param svos
      * @param requiredPermissions
@@ -295,6 +379,16 @@ public interface SecurityService {
     @Secured({ "ACL_SECURABLE_READ" })
     public abstract boolean isViewableByUser( Securable s, String userName );
 
+    /**
+     * Bulk version of {@link #makeOwnedByUser(Securable, String)}, e.g. for handing all of a user's data over to another
+     * user. The user is checked once, and the owners are changed with batched updates.
+     *
+     * @param securables
+     * @param userName
+     */
+    @Secured("GROUP_ADMIN")
+    public abstract void makeOwnedByUser( Collection<? extends Securable> securables, String userName );
+
     /**
      * Administrative method to allow a user to get access to an object. This is useful for cases where a data set is
      * loaded by admin but we need to hand it off to a user. If the user is the same as the current owner nothing is
@@ -309,6 +403,8 @@ public interface SecurityService {
     public abstract void makeOwnedByUser( Securable s, String userName );
 
     /**
+     * Makes the objects private, loading and writing their ACLs together.
+     *
      * @param objs
      */
     public abstract void makePrivate( Collection<? extends Securable> objs );
@@ -322,6 +418,8 @@ public interface SecurityService {
     public abstract void makePrivate( Securable object );
 
     /**
+     * Makes the objects public, loading and writing their ACLs together.
+     *
      * @param objs
      */
     @Transactional
@@ -382,12 +480,46 @@ public interface SecurityService {
     @Secured("ACL_SECURABLE_EDIT")
     public abstract Collection<String> readableBy( Securable s );
 
+    /**
+     * Pageable version of {@link #readableBy(Securable)}.
+     *
+     * @param s
+     * @param offset index of the first user name to return
+     * @param limit maximum number of user names to return
+     * @return userNames of users who can read the given securable, in alphabetical order.
+     */
+    @Secured("ACL_SECURABLE_EDIT")
+    public abstract List<String> readableBy( Securable s, int offset, int limit );
+
+    /**
+     * Remove the matching entries from the ACLs of the securables (not from their parents), with one read of the ACLs
+     * and one write of those that changed.
+     *
+     * @param securables
+     * @param toRemove for each SID, the permissions whose entries are to be removed
+     * @throws AuthorizationServiceException if the collection is empty, see comments in
+     *         {@link gemma.gsec.acl.voter.AclCollectionEntryVoter AclCollectionEntryVoter}
+     */
+    @Secured({ "ACL_SECURABLE_COLLECTION_EDIT" })
+    public abstract void removeEntries( Collection<? extends Securable> securables,
+            Map<Sid, Collection<Permission>> toRemove );
+
     /**
      * @param userName
      * @param groupName
      */
     public abstract void removeUserFromGroup( String userName, String groupName );
 
+    /**
+     * Bulk version of {@link #setOwner(Securable, String)}: the user is checked once, the owners are changed with
+     * batched updates and the cache is evicted in bulk.
+     *
+     * @param securables
+     * @param userName
+     */
+    @Secured("GROUP_ADMIN")
+    public abstract void setOwner( Collection<? extends Securable> securables, String userName );
+
     /**
      * Change the 'owner' of an object to a specific user. Note that this doesn't support making the owner a
      * grantedAuthority.
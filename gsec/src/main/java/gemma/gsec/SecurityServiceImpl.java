@@ -19,18 +19,35 @@
 package gemma.gsec;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.access.vote.AuthenticatedVoter;
@@ -44,10 +61,11 @@ import org.springframework.security.acls.model.ObjectIdentityRetrievalStrategy;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.acls.model.Sid;
 import org.springframework.security.acls.model.SidRetrievalStrategy;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -56,12 +74,18 @@ import org.springframework.transaction.annotation.Transactional;
 
 import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
 import gemma.gsec.acl.domain.AclGrantedAuthoritySid;
+import gemma.gsec.acl.domain.AclImpl;
 import gemma.gsec.acl.domain.AclPrincipalSid;
 import gemma.gsec.acl.domain.AclService;
+import gemma.gsec.authentication.GroupMembershipIndex;
+import gemma.gsec.authentication.SidDictionary;
 import gemma.gsec.authentication.UserManager;
+import gemma.gsec.authentication.UserManagerEvent;
+import gemma.gsec.authentication.UserSidCache;
 import gemma.gsec.model.Securable;
 import gemma.gsec.model.SecureValueObject;
 import gemma.gsec.model.UserGroup;
+import gemma.gsec.util.AclQueryFragment;
 import gemma.gsec.util.SecurityUtil;
 
 /**
@@ -77,24 +101,71 @@ import gemma.gsec.util.SecurityUtil;
  */
 @Service("securityService")
 @Transactional
-public class SecurityServiceImpl implements SecurityService {
+public class SecurityServiceImpl implements SecurityService, DisposableBean {
+
+    /*
+     * Either of these is enough to edit, or to read, respectively.
+     */
+    private static final List<Permission> EDIT_PERMISSIONS = Collections.unmodifiableList( Arrays
+            .<Permission> asList( BasePermission.WRITE, BasePermission.ADMINISTRATION ) );
+
+    private static final List<Permission> READ_PERMISSIONS = Collections.unmodifiableList( Arrays
+            .<Permission> asList( BasePermission.READ, BasePermission.ADMINISTRATION ) );
+
+    /*
+     * The permissions considered for group access; see getGroupAccess.
+     */
+    private static final int GROUP_ADMINISTRATION = 2;
+    private static final int[] GROUP_MASKS = { BasePermission.READ.getMask(), BasePermission.WRITE.getMask(),
+            BasePermission.ADMINISTRATION.getMask() };
+    private static final int GROUP_READ = 0;
+    private static final int GROUP_WRITE = 1;
+
+    /*
+     * Levels of parent ACLs followed by the query fragments; see AclQueryFragment.
+     */
+    private int aclQueryInheritanceDepth = AclQueryFragment.DEFAULT_INHERITANCE_DEPTH;
 
     @Autowired
     private AclService aclService;
 
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private EditableGroupsCache editableGroupsCache;
+
+    @Autowired
+    private GroupMembershipIndex groupMembershipIndex;
+
     private Log log = LogFactory.getLog( SecurityServiceImpl.class );
 
     private ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy = new ValueObjectAwareIdentityRetrievalStrategyImpl();
 
+    /*
+     * Bulk checks on at least this many objects are spread over the pool; by default, never.
+     */
+    private int parallelThreshold = Integer.MAX_VALUE;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private volatile ForkJoinPool pool;
+
     @Autowired
     private SessionRegistry sessionRegistry;
 
+    @Autowired
+    private SidDictionary sidDictionary;
+
     @Autowired
     private SidRetrievalStrategy sidRetrievalStrategy;
 
     @Autowired
     private UserManager userManager;
 
+    @Autowired
+    private UserSidCache userSidCache;
+
     // @Autowired
     // private UserService userService;
 
@@ -107,6 +178,7 @@ public class SecurityServiceImpl implements SecurityService {
     @Transactional
     public void addUserToGroup( String userName, String groupName ) {
         this.userManager.addUserToGroup( userName, groupName );
+        publishEvent( UserManagerEvent.Type.MEMBERSHIP_CHANGED, userName, groupName );
     }
 
     /*
@@ -119,24 +191,27 @@ public class SecurityServiceImpl implements SecurityService {
 
         Map<T, Boolean> result = new HashMap<>();
 
+        if ( securables.isEmpty() ) return result;
+
+        /*
+         * One bulk read of the ACLs, and the SIDs of the current user resolved once.
+         */
+        List<ObjectIdentity> identities = new ArrayList<>( securables.size() );
         for ( T s : securables ) {
-            result.put( s, false );
+            identities.add( objectIdentityRetrievalStrategy.getObjectIdentity( s ) );
         }
+        Map<ObjectIdentity, Acl> acls = readAcls( new LinkedHashSet<>( identities ) );
 
-        Collection<T> privateOnes = this.choosePrivate( securables );
-
-        if ( privateOnes.isEmpty() ) return result;
-
-        String currentUsername = userManager.getCurrentUsername();
+        List<Sid> sids = sidRetrievalStrategy.getSids( SecurityContextHolder.getContext().getAuthentication() );
+        Sid[] sidArray = sids.toArray( new Sid[sids.size()] );
+        int[] readMasks = AclImpl.toMasks( READ_PERMISSIONS );
 
-        for ( T s : privateOnes ) {
-            try {
-                if ( this.isViewableByUser( s, currentUsername ) ) {
-                    result.put( s, true );
-                }
-            } catch ( AccessDeniedException e ) {
-                // ok
-            }
+        int i = 0;
+        for ( T s : securables ) {
+            Acl acl = acls.get( identities.get( i++ ) );
+            boolean readable = acl != null && SecurityUtil.isPrivate( acl )
+                    && isGrantedAny( acl, readMasks, sidArray, READ_PERMISSIONS, sids );
+            result.put( s, readable );
         }
 
         return result;
@@ -170,12 +245,9 @@ public class SecurityServiceImpl implements SecurityService {
 
         for ( ObjectIdentity oi : acls.keySet() ) {
             Acl a = acls.get( oi );
-            Sid owner = a.getOwner();
 
             result.put( objectIdentities.get( oi ), false );
-            if ( isAdmin
-                    || ( owner != null && owner instanceof AclPrincipalSid && ( ( AclPrincipalSid ) owner )
-                            .getPrincipal().equals( currentUsername ) ) ) {
+            if ( isAdmin || currentUsername.equals( getOwnerPrincipal( a ) ) ) {
                 result.put( objectIdentities.get( oi ), true );
             }
         }
@@ -296,6 +368,7 @@ public class SecurityServiceImpl implements SecurityService {
         auths.add( new SimpleGrantedAuthority( groupAuthority ) );
 
         this.userManager.createGroup( groupName, auths );
+        publishEvent( UserManagerEvent.Type.GROUP_CREATED, null, groupName );
         addUserToGroup( userManager.getCurrentUsername(), groupName );
 
         // make sure all current and future members of the group will be able to see the group
@@ -313,23 +386,34 @@ public class SecurityServiceImpl implements SecurityService {
     /*
      * (non-Javadoc)
      *
-     * @see ubic.gemma.security.SecurityService#editableBy(ubic.gemma.model.common.auditAndSecurity.Securable)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
     @Override
-    public Collection<String> editableBy( Securable s ) {
-
-        Collection<String> allUsers = userManager.findAllUsers();
-
-        Collection<String> result = new HashSet<>();
-
-        for ( String u : allUsers ) {
-            if ( isEditableByUser( s, u ) ) {
-                result.add( u );
-            }
+    public synchronized void destroy() {
+        if ( pool != null ) {
+            pool.shutdown();
+            pool = null;
         }
+    }
 
-        return result;
+    /*
+     * (non-Javadoc)
+     *
+     * @see ubic.gemma.security.SecurityService#editableBy(ubic.gemma.model.common.auditAndSecurity.Securable)
+     */
+    @Override
+    public Collection<String> editableBy( Securable s ) {
+        return usersGrantedAny( s, EDIT_PERMISSIONS );
+    }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#editableBy(gemma.gsec.model.Securable, int, int)
+     */
+    @Override
+    public List<String> editableBy( Securable s, int offset, int limit ) {
+        return page( usersGrantedAny( s, EDIT_PERMISSIONS ), offset, limit );
     }
 
     /**
@@ -411,25 +495,18 @@ public class SecurityServiceImpl implements SecurityService {
     @Override
     @Secured("GROUP_ADMIN")
     public Collection<Sid> getAvailableSids() {
+        return new HashSet<>( sidDictionary.getAll() );
+    }
 
-        Collection<Sid> results = new HashSet<>();
-
-        Collection<String> users = userManager.findAllUsers();
-
-        for ( String u : users ) {
-            results.add( new AclPrincipalSid( u ) );
-        }
-
-        Collection<String> groups = userManager.findAllGroups();
-
-        for ( String g : groups ) {
-            List<GrantedAuthority> ga = userManager.findGroupAuthorities( g );
-            for ( GrantedAuthority grantedAuthority : ga ) {
-                results.add( new AclGrantedAuthoritySid( grantedAuthority.getAuthority() ) );
-            }
-        }
-
-        return results;
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#getAvailableSids(java.lang.String, int, int)
+     */
+    @Override
+    @Secured("GROUP_ADMIN")
+    public List<Sid> getAvailableSids( String prefix, int offset, int limit ) {
+        return sidDictionary.getSids( prefix, offset, limit );
     }
 
     /**
@@ -468,25 +545,14 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public <T extends Securable> Map<T, Collection<String>> getGroupsEditableBy( Collection<T> securables ) {
-        Collection<String> groupNames = getGroupsUserCanView();
-
         Map<T, Collection<String>> result = new HashMap<>();
 
-        List<Permission> write = new ArrayList<>();
-        write.add( BasePermission.WRITE );
-
-        List<Permission> admin = new ArrayList<>();
-        admin.add( BasePermission.ADMINISTRATION );
-
-        for ( String groupName : groupNames ) {
-            Map<T, Boolean> groupHasPermission = this.groupHasPermission( securables, write, groupName );
-
-            populateGroupsEditableBy( result, groupName, groupHasPermission );
-
-            groupHasPermission = this.groupHasPermission( securables, admin, groupName );
-
-            populateGroupsEditableBy( result, groupName, groupHasPermission );
-
+        Map<T, GroupAccess> access = getGroupAccess( securables );
+        for ( T s : access.keySet() ) {
+            Collection<String> editors = access.get( s ).editors;
+            if ( !editors.isEmpty() ) {
+                result.put( s, editors );
+            }
         }
 
         return result;
@@ -499,17 +565,9 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public Collection<String> getGroupsEditableBy( Securable s ) {
-        Collection<String> groupNames = getGroupsUserCanView();
-
-        Collection<String> result = new HashSet<>();
-
-        for ( String string : groupNames ) {
-            if ( this.isEditableByGroup( s, string ) ) {
-                result.add( string );
-            }
-        }
-
-        return result;
+        GroupAccess access = getGroupAccess( Collections.singleton( s ) ).get( s );
+        if ( access == null ) return new HashSet<>();
+        return access.editors;
     }
 
     /*
@@ -519,27 +577,14 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public <T extends Securable> Map<T, Collection<String>> getGroupsReadableBy( Collection<T> securables ) {
-
         Map<T, Collection<String>> result = new HashMap<>();
 
-        if ( securables.isEmpty() ) return result;
-
-        Collection<String> groupNames = getGroupsUserCanView();
-
-        List<Permission> read = new ArrayList<>();
-        read.add( BasePermission.READ );
-
-        List<Permission> admin = new ArrayList<>();
-        admin.add( BasePermission.ADMINISTRATION );
-
-        for ( String groupName : groupNames ) {
-            Map<T, Boolean> groupHasPermission = this.groupHasPermission( securables, read, groupName );
-
-            populateGroupsEditableBy( result, groupName, groupHasPermission );
-
-            groupHasPermission = this.groupHasPermission( securables, admin, groupName );
-
-            populateGroupsEditableBy( result, groupName, groupHasPermission );
+        Map<T, GroupAccess> access = getGroupAccess( securables );
+        for ( T s : access.keySet() ) {
+            Collection<String> readers = access.get( s ).readers;
+            if ( !readers.isEmpty() ) {
+                result.put( s, readers );
+            }
         }
 
         return result;
@@ -552,17 +597,9 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public Collection<String> getGroupsReadableBy( Securable s ) {
-        Collection<String> groupNames = getGroupsUserCanView();
-
-        Collection<String> result = new HashSet<>();
-
-        for ( String string : groupNames ) {
-            if ( this.isReadableByGroup( s, string ) ) {
-                result.add( string );
-            }
-        }
-
-        return result;
+        GroupAccess access = getGroupAccess( Collections.singleton( s ) ).get( s );
+        if ( access == null ) return new HashSet<>();
+        return access.readers;
     }
 
     /*
@@ -574,14 +611,60 @@ public class SecurityServiceImpl implements SecurityService {
     public Collection<String> getGroupsUserCanEdit( String userName ) {
         Collection<String> groupNames = getGroupsUserCanView();
 
+        long generation = editableGroupsCache.getGeneration();
+        Map<String, Boolean> known = editableGroupsCache.get( userName );
+        Map<String, ObjectIdentity> groupIdentities = editableGroupsCache.getGroupIdentities();
+
         Collection<String> result = new HashSet<>();
+        Map<ObjectIdentity, String> toCheck = new HashMap<>();
+        Map<String, ObjectIdentity> resolved = new HashMap<>();
         for ( String gname : groupNames ) {
-            UserGroup g = userManager.findGroupByName( gname );
-            if ( this.isEditableByUser( g, userName ) ) {
+            Boolean editable = known.get( gname );
+            if ( editable == null ) {
+                /*
+                 * The UserManager can only look groups up one at a time, so the identities are shared between users.
+                 */
+                ObjectIdentity oi = groupIdentities.get( gname );
+                if ( oi == null ) {
+                    UserGroup g = userManager.findGroupByName( gname );
+                    if ( g == null ) continue;
+                    oi = objectIdentityRetrievalStrategy.getObjectIdentity( g );
+                    resolved.put( gname, oi );
+                }
+                toCheck.put( oi, gname );
+            } else if ( editable ) {
+                result.add( gname );
+            }
+        }
+
+        if ( !resolved.isEmpty() ) {
+            editableGroupsCache.putGroupIdentities( resolved, generation );
+        }
+
+        if ( toCheck.isEmpty() ) return result;
+
+        /*
+         * One ACL read and one SID resolution for all the groups we don't already know about.
+         */
+        List<Sid> sids = userSidCache.getSids( userName );
+        Sid[] sidArray = sids.toArray( new Sid[sids.size()] );
+        int[] editMasks = AclImpl.toMasks( EDIT_PERMISSIONS );
+
+        Map<ObjectIdentity, Acl> acls = readAcls( toCheck.keySet() );
+
+        Map<String, Boolean> answers = new HashMap<>();
+        for ( ObjectIdentity oi : toCheck.keySet() ) {
+            Acl acl = acls.get( oi );
+            boolean editable = acl != null && isGrantedAny( acl, editMasks, sidArray, EDIT_PERMISSIONS, sids );
+            String gname = toCheck.get( oi );
+            answers.put( gname, editable );
+            if ( editable ) {
                 result.add( gname );
             }
         }
 
+        editableGroupsCache.put( userName, answers, generation );
+
         return result;
 
     }
@@ -631,121 +714,203 @@ public class SecurityServiceImpl implements SecurityService {
     /*
      * (non-Javadoc)
      *
-     * @see gemma.gsec.SecurityService#hasPermission(java.util.List, java.util.List,
+     * @see gemma.gsec.SecurityService#getSecuritySummaries(java.util.List, java.util.List,
      * org.springframework.security.core.Authentication)
      */
     @Override
-    public <T extends Securable> List<Boolean> hasPermission( List<T> svos, List<Permission> requiredPermissions,
-            Authentication authentication ) {
+    public <T extends Securable> List<SecuritySummary> getSecuritySummaries( List<T> securables,
+            List<Permission> readPermissions, Authentication authentication ) {
+        List<SecuritySummary> result = new ArrayList<>( securables.size() );
 
-        List<Boolean> result = new ArrayList<>();
+        if ( securables.isEmpty() ) return result;
 
-        if ( svos.isEmpty() ) return result;
+        ObjectIdentity[] identities = new ObjectIdentity[securables.size()];
+        Set<ObjectIdentity> distinct = new LinkedHashSet<>();
+        for ( int i = 0; i < identities.length; i++ ) {
+            T s = securables.get( i );
+            if ( s == null ) continue;
+            identities[i] = objectIdentityRetrievalStrategy.getObjectIdentity( s );
+            distinct.add( identities[i] );
+        }
+
+        Map<ObjectIdentity, Acl> acls = distinct.isEmpty() ? Collections.<ObjectIdentity, Acl> emptyMap()
+                : readAcls( distinct );
 
-        Map<ObjectIdentity, T> objectIdentities = getObjectIdentities( svos );
+        List<Sid> sids = sidRetrievalStrategy.getSids( authentication );
+        Sid[] sidArray = sids.toArray( new Sid[sids.size()] );
+        int[] readMasks = AclImpl.toMasks( readPermissions );
+        int[] editMasks = AclImpl.toMasks( EDIT_PERMISSIONS );
 
         /*
-         * Take advantage of fast bulk loading of ACLs.
+         * Same notion of ownership as areOwnedByCurrentUser: administrators own everything.
          */
-        Map<ObjectIdentity, Acl> acls;
-        try {
-            acls = aclService
-                    .readAclsById( new Vector<>( objectIdentities.keySet() ) );
-
-        } catch ( NotFoundException e ) {
-            /*
-             * we don't know which ones were missing (this can be due to some kind of stale-cache state?), so do it the
-             * slow way
-             */
-            acls = new HashMap<>();
-            for ( T s : svos ) {
-                ObjectIdentity oi = objectIdentityRetrievalStrategy.getObjectIdentity( s );
+        String userName = authentication.getName();
+        boolean isAdmin = false;
+        for ( GrantedAuthority ga : authentication.getAuthorities() ) {
+            if ( ga.getAuthority().equals( AuthorityConstants.ADMIN_GROUP_AUTHORITY ) ) {
+                isAdmin = true;
+                break;
+            }
+        }
 
-                try {
-                    acls.put( oi, aclService.readAclById( oi ) );
-                } catch ( NotFoundException e1 ) {
-                    log.warn( e1.getMessage() );
-                    acls.put( oi, null );
-                }
+        for ( ObjectIdentity oi : identities ) {
+            Acl acl = oi == null ? null : acls.get( oi );
+            if ( acl == null ) {
+                result.add( null );
+                continue;
             }
+
+            boolean readable = isGranted( acl, readMasks, sidArray, readPermissions, sids );
+            boolean writable = isGrantedAny( acl, editMasks, sidArray, EDIT_PERMISSIONS, sids );
+            boolean owned = isAdmin || userName.equals( getOwnerPrincipal( acl ) );
+            result.add( SecuritySummary.valueOf( readable, writable, owned, !SecurityUtil.isPrivate( acl ),
+                    SecurityUtil.isShared( acl ) ) );
         }
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#getReadableHqlFragment(java.lang.Class, java.lang.String)
+     */
+    @Override
+    public AclQueryFragment getReadableHqlFragment( Class<? extends Securable> clazz, String alias ) {
+        return AclQueryFragment.forHql( alias, clazz,
+                sidRetrievalStrategy.getSids( SecurityContextHolder.getContext().getAuthentication() ),
+                READ_PERMISSIONS, aclQueryInheritanceDepth );
+    }
 
-        assert !acls.isEmpty();
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#getReadableSqlFragment(java.lang.Class, java.lang.String)
+     */
+    @Override
+    public AclQueryFragment getReadableSqlFragment( Class<? extends Securable> clazz, String idColumn ) {
+        return AclQueryFragment.forSql( idColumn, clazz,
+                sidRetrievalStrategy.getSids( SecurityContextHolder.getContext().getAuthentication() ),
+                READ_PERMISSIONS, aclQueryInheritanceDepth );
+    }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#hasAnyPermission(gemma.gsec.model.Securable, java.util.List,
+     * org.springframework.security.core.Authentication)
+     */
+    @Override
+    public boolean hasAnyPermission( Securable s, List<Permission> permissions, Authentication authentication ) {
         List<Sid> sids = sidRetrievalStrategy.getSids( authentication );
+        try {
+            Acl acl = aclService.readAclById( objectIdentityRetrievalStrategy.getObjectIdentity( s ), sids );
+            return isGrantedAny( acl, permissions, sids );
+        } catch ( NotFoundException ignore ) {
+            return false;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#hasPermission(java.util.List, java.util.List, java.util.List)
+     */
+    @Override
+    public <T extends Securable> BitSet hasPermission( List<T> securables, List<Permission> requiredPermissions,
+            List<Sid> sids ) {
 
-        assert !sids.isEmpty();
+        BitSet result = new BitSet( securables.size() );
 
-        for ( T s : svos ) {
-            // yes, we have to do it again.
-            ObjectIdentity oi = objectIdentityRetrievalStrategy.getObjectIdentity( s );
-            Acl acl = acls.get( oi );
+        if ( securables.isEmpty() ) return result;
 
-            if ( acl == null ) {
-                result.add( false );
-                continue;
+        /*
+         * Compute each identity once, keeping them aligned with the input. This stays on the calling thread, since it
+         * may initialize Hibernate proxies, which needs the caller's session. For large inputs the evaluation below,
+         * which only looks at the ACLs already loaded, may be done in parallel.
+         */
+        final Object[] items = securables.toArray();
+        final ObjectIdentity[] identities = new ObjectIdentity[items.length];
+        for ( int i = 0; i < items.length; i++ ) {
+            if ( items[i] != null ) {
+                identities[i] = objectIdentityRetrievalStrategy.getObjectIdentity( items[i] );
             }
+        }
 
-            try {
-                boolean granted = acl.isGranted( requiredPermissions, sids, false );
+        Collection<ObjectIdentity> distinct = new LinkedHashSet<>();
+        for ( ObjectIdentity oi : identities ) {
+            if ( oi != null ) distinct.add( oi );
+        }
 
-                result.add( granted );
-            } catch ( NotFoundException ignore ) { // this won't happen?
-                /*
-                 * The user is anonymous.
-                 */
-                result.add( false );
+        if ( distinct.isEmpty() ) return result;
+
+        final Map<ObjectIdentity, Acl> acls = readAcls( distinct );
+
+        final List<Permission> permissions = requiredPermissions;
+        final List<Sid> sidList = sids;
+        final int[] masks = AclImpl.toMasks( requiredPermissions );
+        final Sid[] sidArray = sids.toArray( new Sid[sids.size()] );
+        final boolean[] granted = new boolean[items.length];
+
+        forEachIndex( items.length, new IndexedTask() {
+            @Override
+            public void run( int i ) {
+                if ( identities[i] == null ) return;
+                Acl acl = acls.get( identities[i] );
+                granted[i] = acl != null && isGranted( acl, masks, sidArray, permissions, sidList );
             }
-        }
+        } );
 
-        assert result.size() == svos.size();
+        for ( int i = 0; i < granted.length; i++ ) {
+            if ( granted[i] ) result.set( i );
+        }
 
         return result;
-
     }
 
     /*
      * (non-Javadoc)
      *
-     * @see ubic.gemma.security.SecurityService#hasPermission(java.util.Collection, java.util.List,
+     * @see gemma.gsec.SecurityService#hasPermission(java.util.List, java.util.List,
      * org.springframework.security.core.Authentication)
      */
     @Override
-    public Map<SecureValueObject, Boolean> hasPermissionVO( Collection<SecureValueObject> svos,
-            List<Permission> requiredPermissions, Authentication authentication ) {
+    public <T extends Securable> List<Boolean> hasPermission( List<T> svos, List<Permission> requiredPermissions,
+            Authentication authentication ) {
 
-        Map<SecureValueObject, Boolean> result = new HashMap<>();
+        List<Boolean> result = new ArrayList<>( svos.size() );
 
         if ( svos.isEmpty() ) return result;
 
-        Map<ObjectIdentity, SecureValueObject> objectIdentities = getObjectIdentities( svos );
+        BitSet granted = hasPermission( svos, requiredPermissions, sidRetrievalStrategy.getSids( authentication ) );
 
-        /*
-         * Take advantage of fast bulk loading of ACLs.
-         */
+        for ( int i = 0; i < svos.size(); i++ ) {
+            result.add( granted.get( i ) );
+        }
 
-        Map<ObjectIdentity, Acl> acls = aclService
-                .readAclsById( new Vector<>( objectIdentities.keySet() ) );
+        return result;
 
-        assert !acls.isEmpty();
+    }
 
-        List<Sid> sids = sidRetrievalStrategy.getSids( authentication );
+    /*
+     * (non-Javadoc)
+     *
+     * @see ubic.gemma.security.SecurityService#hasPermission(java.util.Collection, java.util.List,
+     * org.springframework.security.core.Authentication)
+     */
+    @Override
+    public Map<SecureValueObject, Boolean> hasPermissionVO( Collection<SecureValueObject> svos,
+            List<Permission> requiredPermissions, Authentication authentication ) {
 
-        assert !sids.isEmpty();
+        Map<SecureValueObject, Boolean> result = new HashMap<>();
 
-        for ( ObjectIdentity oi : acls.keySet() ) {
-            Acl acl = acls.get( oi );
+        if ( svos.isEmpty() ) return result;
 
-            try {
-                boolean granted = acl.isGranted( requiredPermissions, sids, false );
+        List<SecureValueObject> list = new ArrayList<>( svos );
 
-                result.put( objectIdentities.get( oi ), granted );
-            } catch ( NotFoundException ignore ) { // this won't happen?
-                /*
-                 * The user is anonymous.
-                 */
-                result.put( objectIdentities.get( oi ), false );
-            }
+        BitSet granted = hasPermission( list, requiredPermissions, sidRetrievalStrategy.getSids( authentication ) );
+
+        for ( int i = 0; i < list.size(); i++ ) {
+            result.put( list.get( i ), granted.get( i ) );
         }
         return result;
 
@@ -792,16 +957,7 @@ public class SecurityServiceImpl implements SecurityService {
 
         String currentUser = this.userManager.getCurrentUsername();
 
-        List<Permission> requiredPermissions = new ArrayList<>();
-
-        requiredPermissions.add( BasePermission.WRITE );
-        if ( hasPermission( s, requiredPermissions, currentUser ) ) {
-            return true;
-        }
-
-        requiredPermissions.clear();
-        requiredPermissions.add( BasePermission.ADMINISTRATION );
-        return hasPermission( s, requiredPermissions, currentUser );
+        return hasPermission( s, EDIT_PERMISSIONS, currentUser );
     }
 
     /*
@@ -812,16 +968,7 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public boolean isEditableByGroup( Securable s, String groupName ) {
-        List<Permission> requiredPermissions = new ArrayList<>();
-        requiredPermissions.add( BasePermission.WRITE );
-
-        if ( groupHasPermission( s, requiredPermissions, groupName ) ) {
-            return true;
-        }
-
-        requiredPermissions.clear();
-        requiredPermissions.add( BasePermission.ADMINISTRATION );
-        return groupHasPermission( s, requiredPermissions, groupName );
+        return groupHasPermission( s, EDIT_PERMISSIONS, groupName );
     }
 
     /*
@@ -832,15 +979,7 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public boolean isEditableByUser( Securable s, String userName ) {
-        List<Permission> requiredPermissions = new ArrayList<>();
-        requiredPermissions.add( BasePermission.WRITE );
-        if ( hasPermission( s, requiredPermissions, userName ) ) {
-            return true;
-        }
-
-        requiredPermissions.clear();
-        requiredPermissions.add( BasePermission.ADMINISTRATION );
-        return hasPermission( s, requiredPermissions, userName );
+        return hasPermission( s, EDIT_PERMISSIONS, userName );
     }
 
     /*
@@ -970,16 +1109,7 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public boolean isReadableByGroup( Securable s, String groupName ) {
-        List<Permission> requiredPermissions = new ArrayList<>();
-        requiredPermissions.add( BasePermission.READ );
-
-        if ( groupHasPermission( s, requiredPermissions, groupName ) ) {
-            return true;
-        }
-
-        requiredPermissions.clear();
-        requiredPermissions.add( BasePermission.ADMINISTRATION );
-        return groupHasPermission( s, requiredPermissions, groupName );
+        return groupHasPermission( s, READ_PERMISSIONS, groupName );
     }
 
     /*
@@ -1024,22 +1154,46 @@ public class SecurityServiceImpl implements SecurityService {
      */
     @Override
     public boolean isViewableByUser( Securable s, String userName ) {
-        List<Permission> requiredPermissions = new ArrayList<>();
-        requiredPermissions.add( BasePermission.READ );
-        if ( hasPermission( s, requiredPermissions, userName ) ) {
-            return true;
-        }
-
-        requiredPermissions.clear();
-        requiredPermissions.add( BasePermission.ADMINISTRATION );
-        return hasPermission( s, requiredPermissions, userName );
+        return hasPermission( s, READ_PERMISSIONS, userName );
     }
 
     /*
      * (non-Javadoc)
      *
-     * @see ubic.gemma.security.SecurityService#makeOwnedByUser(ubic.gemma.model.common.auditAndSecurity.Securable,
-     * java.lang.String)
+     * @see gemma.gsec.SecurityService#makeOwnedByUser(java.util.Collection, java.lang.String)
+     */
+    @Override
+    @Secured("GROUP_ADMIN")
+    @Transactional
+    public void makeOwnedByUser( Collection<? extends Securable> securables, String userName ) {
+        Map<ObjectIdentity, Acl> acls = readAclsForUpdate( securables );
+
+        List<MutableAcl> toChange = new ArrayList<>();
+        for ( Acl a : acls.values() ) {
+            if ( !userName.equals( getOwnerPrincipal( a ) ) ) {
+                toChange.add( ( MutableAcl ) a );
+            }
+        }
+
+        if ( toChange.isEmpty() ) return;
+
+        checkUserCanOwn( userName );
+
+        Sid owner = new AclPrincipalSid( userName );
+        aclService.setOwner( toChange, owner );
+
+        for ( MutableAcl acl : toChange ) {
+            addEntryIfAbsent( acl, BasePermission.WRITE, owner );
+            addEntryIfAbsent( acl, BasePermission.READ, owner );
+        }
+        aclService.updateAcls( toChange );
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see ubic.gemma.security.SecurityService#makeOwnedByUser(ubic.gemma.model.common.auditAndSecurity.Securable,
+     * java.lang.String)
      */
     @Override
     @Secured("GROUP_ADMIN")
@@ -1055,11 +1209,7 @@ public class SecurityServiceImpl implements SecurityService {
             return;
         }
 
-        // make sure user exists and is enabled.
-        UserDetails user = this.userManager.loadUserByUsername( userName );
-        if ( !user.isEnabled() || !user.isAccountNonExpired() || !user.isAccountNonLocked() ) {
-            throw new IllegalArgumentException( "User  " + userName + " has a disabled account" );
-        }
+        checkUserCanOwn( userName );
 
         acl.setOwner( new AclPrincipalSid( userName ) );
         aclService.updateAcl( acl );
@@ -1079,9 +1229,28 @@ public class SecurityServiceImpl implements SecurityService {
     @Override
     @Transactional
     public void makePrivate( Collection<? extends Securable> objs ) {
-        for ( Securable s : objs ) {
-            makePrivate( s );
+        // no ACL means private, as for a single object.
+        Map<ObjectIdentity, Acl> acls = readAclsForUpdate( objs, true );
+        Map<Sid, Collection<Permission>> anonRead = authorityEntries( AuthorityConstants.IS_AUTHENTICATED_ANONYMOUSLY,
+                BasePermission.READ );
+
+        List<MutableAcl> changed = new ArrayList<>();
+        for ( Acl a : acls.values() ) {
+            if ( SecurityUtil.isPrivate( a ) ) {
+                log.warn( "Object is already private: " + a.getObjectIdentity() );
+                continue;
+            }
+
+            /*
+             * Remove ACEs for IS_AUTHENTICATED_ANOYMOUSLY, if they are there.
+             */
+            MutableAcl acl = ( MutableAcl ) a;
+            if ( removeEntries( acl, anonRead ) ) {
+                changed.add( acl );
+            }
         }
+
+        aclService.updateAcls( changed );
     }
 
     /*
@@ -1105,9 +1274,8 @@ public class SecurityServiceImpl implements SecurityService {
         /*
          * Remove ACE for IS_AUTHENTICATED_ANOYMOUSLY, if it's there.
          */
-        String authorityToRemove = AuthorityConstants.IS_AUTHENTICATED_ANONYMOUSLY;
-
-        removeGrantedAuthority( object, BasePermission.READ, authorityToRemove );
+        removeEntries( Collections.singleton( object ),
+                authorityEntries( AuthorityConstants.IS_AUTHENTICATED_ANONYMOUSLY, BasePermission.READ ) );
 
         // will fail until flush...
         if ( isPublic( object ) ) {
@@ -1124,9 +1292,24 @@ public class SecurityServiceImpl implements SecurityService {
     @Override
     @Transactional
     public void makePublic( Collection<? extends Securable> objs ) {
-        for ( Securable s : objs ) {
-            makePublic( s );
+        Map<ObjectIdentity, Acl> acls = readAclsForUpdate( objs );
+
+        Sid anonSid = new AclGrantedAuthoritySid( new SimpleGrantedAuthority(
+                AuthorityConstants.IS_AUTHENTICATED_ANONYMOUSLY ) );
+
+        List<MutableAcl> changed = new ArrayList<>();
+        for ( Acl a : acls.values() ) {
+            if ( !SecurityUtil.isPrivate( a ) ) {
+                log.warn( "Object is already public: " + a.getObjectIdentity() );
+                continue;
+            }
+
+            MutableAcl acl = ( MutableAcl ) a;
+            acl.insertAce( acl.getEntries().size(), BasePermission.READ, anonSid, true );
+            changed.add( acl );
         }
+
+        aclService.updateAcls( changed );
     }
 
     /*
@@ -1215,8 +1398,9 @@ public class SecurityServiceImpl implements SecurityService {
             throw new IllegalArgumentException( "'group' cannot be null" );
         }
 
-        removeGrantedAuthority( s, BasePermission.READ, getGroupAuthorityNameFromGroupName( groupName ) );
-        removeGrantedAuthority( s, BasePermission.WRITE, getGroupAuthorityNameFromGroupName( groupName ) );
+        removeEntries( Collections.singleton( s ),
+                authorityEntries( getGroupAuthorityNameFromGroupName( groupName ), BasePermission.READ,
+                        BasePermission.WRITE ) );
     }
 
     /*
@@ -1235,7 +1419,8 @@ public class SecurityServiceImpl implements SecurityService {
             throw new IllegalArgumentException( "'group' cannot be null" );
         }
 
-        removeGrantedAuthority( s, BasePermission.WRITE, getGroupAuthorityNameFromGroupName( groupName ) );
+        removeEntries( Collections.singleton( s ),
+                authorityEntries( getGroupAuthorityNameFromGroupName( groupName ), BasePermission.WRITE ) );
     }
 
     /*
@@ -1280,17 +1465,46 @@ public class SecurityServiceImpl implements SecurityService {
     @Override
     @Secured("ACL_SECURABLE_EDIT")
     public Collection<String> readableBy( Securable s ) {
-        Collection<String> allUsers = userManager.findAllUsers();
+        return usersGrantedAny( s, READ_PERMISSIONS );
+    }
 
-        Collection<String> result = new HashSet<>();
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#readableBy(gemma.gsec.model.Securable, int, int)
+     */
+    @Override
+    @Secured("ACL_SECURABLE_EDIT")
+    public List<String> readableBy( Securable s, int offset, int limit ) {
+        return page( usersGrantedAny( s, READ_PERMISSIONS ), offset, limit );
+    }
 
-        for ( String u : allUsers ) {
-            if ( isViewableByUser( s, u ) ) {
-                result.add( u );
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#removeEntries(java.util.Collection, java.util.Map)
+     */
+    @Override
+    @Secured({ "ACL_SECURABLE_COLLECTION_EDIT" })
+    @Transactional
+    public void removeEntries( Collection<? extends Securable> securables, Map<Sid, Collection<Permission>> toRemove ) {
+        Map<ObjectIdentity, Acl> acls = readAclsForUpdate( securables );
+
+        List<MutableAcl> changed = new ArrayList<>();
+        for ( Acl a : acls.values() ) {
+            MutableAcl acl = ( MutableAcl ) a;
+            if ( removeEntries( acl, toRemove ) ) {
+                changed.add( acl );
             }
         }
 
-        return result;
+        if ( changed.isEmpty() ) {
+            // this can happen commonly, no big deal.
+            if ( log.isDebugEnabled() ) log.debug( "No changes, didn't remove: " + toRemove );
+            return;
+        }
+
+        aclService.updateAcls( changed );
     }
 
     /*
@@ -1301,6 +1515,26 @@ public class SecurityServiceImpl implements SecurityService {
     @Override
     public void removeUserFromGroup( String userName, String groupName ) {
         this.userManager.removeUserFromGroup( userName, groupName );
+        publishEvent( UserManagerEvent.Type.MEMBERSHIP_CHANGED, userName, groupName );
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.SecurityService#setOwner(java.util.Collection, java.lang.String)
+     */
+    @Override
+    @Secured("GROUP_ADMIN")
+    @Transactional
+    public void setOwner( Collection<? extends Securable> securables, String userName ) {
+        checkUserCanOwn( userName );
+
+        List<MutableAcl> acls = new ArrayList<>();
+        for ( Acl a : readAclsForUpdate( securables ).values() ) {
+            acls.add( ( MutableAcl ) a );
+        }
+
+        aclService.setOwner( acls, new AclPrincipalSid( userName ) );
     }
 
     /*
@@ -1313,11 +1547,7 @@ public class SecurityServiceImpl implements SecurityService {
     @Secured("GROUP_ADMIN")
     public void setOwner( Securable s, String userName ) {
 
-        // make sure user exists and is enabled.
-        UserDetails user = this.userManager.loadUserByUsername( userName );
-        if ( !user.isEnabled() || !user.isAccountNonExpired() || !user.isAccountNonLocked() ) {
-            throw new IllegalArgumentException( "User  " + userName + " has a disabled account" );
-        }
+        checkUserCanOwn( userName );
 
         ObjectIdentity oi = this.objectIdentityRetrievalStrategy.getObjectIdentity( s );
         MutableAcl a = ( MutableAcl ) this.aclService.readAclById( oi );
@@ -1328,6 +1558,35 @@ public class SecurityServiceImpl implements SecurityService {
 
     }
 
+    /**
+     * @param aclQueryInheritanceDepth how many levels of parent ACLs the readable query fragments consider; default is
+     *        2. It must be at least the depth of the deepest chain of inheriting parent ACLs in use, or the database
+     *        will leave out objects that are readable only through a more distant parent.
+     */
+    public void setAclQueryInheritanceDepth( int aclQueryInheritanceDepth ) {
+        if ( aclQueryInheritanceDepth < 0 ) {
+            throw new IllegalArgumentException( "Inheritance depth must not be negative" );
+        }
+        this.aclQueryInheritanceDepth = aclQueryInheritanceDepth;
+    }
+
+    /**
+     * @param parallelism the size of the pool used for large bulk checks; defaults to the number of processors. Only
+     *        effective if set before the pool is first used.
+     */
+    public void setParallelism( int parallelism ) {
+        if ( parallelism < 1 ) throw new IllegalArgumentException( "Parallelism must be at least 1" );
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param parallelThreshold bulk permission checks on at least this many objects have their evaluation (against the
+     *        ACLs, once loaded) split over a fork-join pool. The default is to never do this.
+     */
+    public void setParallelThreshold( int parallelThreshold ) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
     /**
      * Provide permission to the given group on the given securable.
      *
@@ -1366,6 +1625,19 @@ public class SecurityServiceImpl implements SecurityService {
         aclService.updateAcl( acl );
     }
 
+    /**
+     * Make sure the user exists and is enabled, so they can be made the owner of objects.
+     *
+     * @param userName
+     * @throws IllegalArgumentException if the account is disabled
+     */
+    private void checkUserCanOwn( String userName ) {
+        UserDetails user = this.userManager.loadUserByUsername( userName );
+        if ( !user.isEnabled() || !user.isAccountNonExpired() || !user.isAccountNonLocked() ) {
+            throw new IllegalArgumentException( "User  " + userName + " has a disabled account" );
+        }
+    }
+
     /**
      * Check if the current user can access the given group.
      *
@@ -1380,6 +1652,178 @@ public class SecurityServiceImpl implements SecurityService {
         return groups;
     }
 
+    /**
+     * Run the task for each index in [0, n), spreading the work over the pool if n reaches the parallel threshold. The
+     * tasks must only write to their own index. The caller's SecurityContext is visible to the tasks.
+     *
+     * @param n
+     * @param task
+     */
+    private void forEachIndex( int n, final IndexedTask task ) {
+        if ( n < parallelThreshold || parallelism < 2 ) {
+            for ( int i = 0; i < n; i++ ) {
+                task.run( i );
+            }
+            return;
+        }
+
+        final SecurityContext context = SecurityContextHolder.getContext();
+        int chunkSize = Math.max( 1, ( n + parallelism * 4 - 1 ) / ( parallelism * 4 ) );
+
+        List<Callable<Void>> jobs = new ArrayList<>();
+        for ( int from = 0; from < n; from += chunkSize ) {
+            final int start = from;
+            final int end = Math.min( n, from + chunkSize );
+            jobs.add( new Callable<Void>() {
+                @Override
+                public Void call() {
+                    SecurityContext previous = SecurityContextHolder.getContext();
+                    SecurityContextHolder.setContext( context );
+                    try {
+                        for ( int i = start; i < end; i++ ) {
+                            task.run( i );
+                        }
+                    } finally {
+                        SecurityContextHolder.setContext( previous );
+                    }
+                    return null;
+                }
+            } );
+        }
+
+        for ( Future<Void> f : getPool().invokeAll( jobs ) ) {
+            try {
+                f.get();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted during permission check", e );
+            } catch ( ExecutionException e ) {
+                if ( e.getCause() instanceof RuntimeException ) throw ( RuntimeException ) e.getCause();
+                if ( e.getCause() instanceof Error ) throw ( Error ) e.getCause();
+                throw new IllegalStateException( e.getCause() );
+            }
+        }
+    }
+
+    /**
+     * @return the pool for large bulk checks, created on first use.
+     */
+    private ForkJoinPool getPool() {
+        ForkJoinPool p = this.pool;
+        if ( p == null ) {
+            synchronized ( this ) {
+                p = this.pool;
+                if ( p == null ) {
+                    p = new ForkJoinPool( parallelism );
+                    this.pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Load the ACLs of objects that are about to be changed together.
+     *
+     * @param objs nulls are ignored
+     * @return map of object identity to ACL, in the order of the objects.
+     * @throws IllegalArgumentException if any of the objects has no ACL
+     */
+    private Map<ObjectIdentity, Acl> readAclsForUpdate( Collection<? extends Securable> objs ) {
+        return readAclsForUpdate( objs, false );
+    }
+
+    /**
+     * Load the ACLs of objects that are about to be changed together.
+     *
+     * @param objs nulls are ignored
+     * @param skipMissing if true, objects without an ACL are left out (with a warning) instead of being an error
+     * @return map of object identity to ACL, in the order of the objects.
+     * @throws IllegalArgumentException if any of the objects has no ACL, unless skipMissing
+     */
+    private Map<ObjectIdentity, Acl> readAclsForUpdate( Collection<? extends Securable> objs, boolean skipMissing ) {
+        Set<ObjectIdentity> identities = new LinkedHashSet<>();
+        for ( Securable s : objs ) {
+            if ( s == null ) continue;
+            identities.add( objectIdentityRetrievalStrategy.getObjectIdentity( s ) );
+        }
+
+        Map<ObjectIdentity, Acl> acls = readAcls( identities );
+
+        Map<ObjectIdentity, Acl> result = new LinkedHashMap<>();
+        for ( ObjectIdentity oi : identities ) {
+            Acl acl = acls.get( oi );
+            if ( acl == null ) {
+                if ( skipMissing ) {
+                    log.warn( "Object has no ACL, skipping: " + oi );
+                    continue;
+                }
+                throw new IllegalArgumentException( "Only valid for objects that have an ACL: " + oi );
+            }
+            result.put( oi, acl );
+        }
+        return result;
+    }
+
+    /**
+     * Works out which of the groups the current user can view are able to read, and which to edit, each of the
+     * securables. The ACLs are loaded once, each group's SIDs are resolved once, and the entries of each ACL are swept
+     * once; the per-group decisions are then read off that sweep.
+     *
+     * @param securables
+     * @return map of securable to the groups that can read and edit it. Securables without an ACL are left out.
+     */
+    private <T extends Securable> Map<T, GroupAccess> getGroupAccess( Collection<T> securables ) {
+        Map<T, GroupAccess> result = new HashMap<>();
+
+        if ( securables.isEmpty() ) return result;
+
+        Map<String, List<Sid>> sidsByGroup = new HashMap<>();
+        for ( String groupName : getGroupsUserCanView() ) {
+            sidsByGroup.put( groupName, getGroupSids( groupName ) );
+        }
+
+        Map<ObjectIdentity, T> objectIdentities = getObjectIdentities( securables );
+        Map<ObjectIdentity, Acl> acls = readAcls( objectIdentities.keySet() );
+
+        // parents are commonly shared, so remember the sweep of each ACL.
+        Map<Acl, Map<Sid, byte[]>> sweeps = new IdentityHashMap<>();
+
+        for ( ObjectIdentity oi : acls.keySet() ) {
+            Acl acl = acls.get( oi );
+            GroupAccess access = new GroupAccess();
+            for ( String groupName : sidsByGroup.keySet() ) {
+                List<Sid> sids = sidsByGroup.get( groupName );
+                boolean admin = isGroupGranted( acl, sids, GROUP_ADMINISTRATION, sweeps );
+                if ( admin || isGroupGranted( acl, sids, GROUP_READ, sweeps ) ) {
+                    access.readers.add( groupName );
+                }
+                if ( admin || isGroupGranted( acl, sids, GROUP_WRITE, sweeps ) ) {
+                    access.editors.add( groupName );
+                }
+            }
+            result.put( objectIdentities.get( oi ), access );
+        }
+
+        return result;
+    }
+
+    /**
+     * @param groupName
+     * @return the SIDs for the group's authorities.
+     */
+    private List<Sid> getGroupSids( String groupName ) {
+        List<GrantedAuthority> auths = userManager.findGroupAuthorities( groupName );
+
+        List<Sid> sids = new ArrayList<>();
+        for ( GrantedAuthority a : auths ) {
+            AclGrantedAuthoritySid sid = new AclGrantedAuthoritySid( new SimpleGrantedAuthority(
+                    userManager.getRolePrefix() + a.getAuthority() ) );
+            sids.add( sid );
+        }
+        return sids;
+    }
+
     /**
      * @return groups that the current user can view. For administrators, this is all groups.
      */
@@ -1408,56 +1852,206 @@ public class SecurityServiceImpl implements SecurityService {
         return result;
     }
 
-    private <T extends Securable> Map<T, Boolean> groupHasPermission( Collection<T> securables,
-            List<Permission> requiredPermissions, String groupName ) {
-        Map<T, Boolean> result = new HashMap<>();
-        Map<ObjectIdentity, T> objectIdentities = getObjectIdentities( securables );
+    /**
+     * @param acl
+     * @return the user name of the owner, or null if the owner is not a principal.
+     */
+    private String getOwnerPrincipal( Acl acl ) {
+        if ( acl instanceof AclImpl ) {
+            return ( ( AclImpl ) acl ).getOwnerPrincipal();
+        }
+        Sid owner = acl.getOwner();
+        if ( owner instanceof AclPrincipalSid ) {
+            return ( ( AclPrincipalSid ) owner ).getPrincipal();
+        }
+        return null;
+    }
 
-        List<GrantedAuthority> auths = userManager.findGroupAuthorities( groupName );
+    /**
+     * Same decision as isGranted for a single permission, read off the sweeps of the ACL and its parents.
+     *
+     * @param acl
+     * @param sids in order
+     * @param maskIndex index into GROUP_MASKS
+     * @param sweeps cache
+     * @return
+     */
+    private boolean isGroupGranted( Acl acl, List<Sid> sids, int maskIndex, Map<Acl, Map<Sid, byte[]>> sweeps ) {
+        for ( Acl a = acl; a != null; a = a.isEntriesInheriting() ? a.getParentAcl() : null ) {
+            Map<Sid, byte[]> decisions = sweep( a, sweeps );
+            for ( Sid sid : sids ) {
+                byte[] d = decisions.get( sid );
+                if ( d != null && d[maskIndex] != 0 ) {
+                    // the first matching entry prevails
+                    return d[maskIndex] > 0;
+                }
+            }
+        }
+        return false;
+    }
 
-        List<Sid> sids = new ArrayList<>();
-        for ( GrantedAuthority a : auths ) {
-            AclGrantedAuthoritySid sid = new AclGrantedAuthoritySid( new SimpleGrantedAuthority(
-                    userManager.getRolePrefix() + a.getAuthority() ) );
-            sids.add( sid );
+    /**
+     * @param acl
+     * @param masks the requiredPermissions, as masks
+     * @param sids the same SIDs as sidList
+     * @param requiredPermissions
+     * @param sidList
+     * @return
+     */
+    private boolean isGranted( Acl acl, int[] masks, Sid[] sids, List<Permission> requiredPermissions,
+            List<Sid> sidList ) {
+        if ( acl instanceof AclImpl ) {
+            return ( ( AclImpl ) acl ).isGranted( masks, sids );
+        }
+        try {
+            return acl.isGranted( requiredPermissions, sidList, false );
+        } catch ( NotFoundException ignore ) {
+            return false;
         }
+    }
 
-        Map<ObjectIdentity, Acl> acls = aclService
-                .readAclsById( new Vector<>( objectIdentities.keySet() ) );
+    /**
+     * "Any of" check; see {@link AclImpl#isGrantedAny(int[], Sid[])}.
+     *
+     * @param acl
+     * @param permissions any of which is enough
+     * @param sids
+     * @return
+     */
+    private boolean isGrantedAny( Acl acl, List<Permission> permissions, List<Sid> sids ) {
+        return isGrantedAny( acl, AclImpl.toMasks( permissions ), sids.toArray( new Sid[sids.size()] ), permissions,
+                sids );
+    }
 
-        for ( ObjectIdentity oi : acls.keySet() ) {
-            Acl a = acls.get( oi );
+    /**
+     * @param acl
+     * @param masks the permissions, as masks
+     * @param sids the same SIDs as sidList
+     * @param permissions any of which is enough
+     * @param sidList
+     * @return
+     */
+    private boolean isGrantedAny( Acl acl, int[] masks, Sid[] sids, List<Permission> permissions, List<Sid> sidList ) {
+        if ( acl instanceof AclImpl ) {
+            return ( ( AclImpl ) acl ).isGrantedAny( masks, sids );
+        }
+        for ( Permission p : permissions ) {
             try {
-                result.put( objectIdentities.get( oi ), a.isGranted( requiredPermissions, sids, true ) );
+                if ( acl.isGranted( Collections.singletonList( p ), sidList, true ) ) {
+                    return true;
+                }
             } catch ( NotFoundException ignore ) {
+                // try the next one
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reverse lookup of the users to whom the ACL grants any of the given permissions. Rather than evaluating the ACL
+     * for every user, we collect the SIDs of the matching granting entries (following inheritance) and expand them
+     * through the group membership index.
+     *
+     * @param s
+     * @param permissions any of which is sufficient
+     * @return user names, sorted
+     */
+    private SortedSet<String> usersGrantedAny( Securable s, List<Permission> permissions ) {
+        SortedSet<String> result = new TreeSet<>();
+
+        Acl acl;
+        try {
+            acl = aclService.readAclById( objectIdentityRetrievalStrategy.getObjectIdentity( s ) );
+        } catch ( NotFoundException e ) {
+            return result;
+        }
+
+        int[] masks = AclImpl.toMasks( permissions );
+        Collection<Sid> grantees = new HashSet<>();
+        boolean hasDenials = false;
+        for ( Acl a = acl; a != null; a = a.isEntriesInheriting() ? a.getParentAcl() : null ) {
+            for ( AccessControlEntry ace : a.getEntries() ) {
+                if ( !ArrayUtils.contains( masks, ace.getPermission().getMask() ) ) continue;
+                if ( ace.isGranting() ) {
+                    grantees.add( ace.getSid() );
+                } else {
+                    hasDenials = true;
+                }
             }
         }
+
+        boolean checkEach = hasDenials;
+        Set<String> candidates = groupMembershipIndex.getUsersFor( grantees );
+        if ( candidates == null ) {
+            /*
+             * The index is only for administrators; others check everybody they are allowed to list, as before. If
+             * they can't list the users, the AccessDeniedException is passed on.
+             */
+            candidates = new HashSet<>( userManager.findAllUsers() );
+            checkEach = true;
+        }
+        result.addAll( candidates );
+
+        if ( checkEach ) {
+            /*
+             * Whether a denial overrides a grant depends on the order of the entries and of the user's SIDs, so check
+             * the candidates the slow way. This is rare.
+             */
+            for ( Iterator<String> it = result.iterator(); it.hasNext(); ) {
+                String userName = it.next();
+                boolean granted = false;
+                for ( Permission p : permissions ) {
+                    if ( hasPermission( s, Collections.singletonList( p ), userName ) ) {
+                        granted = true;
+                        break;
+                    }
+                }
+                if ( !granted ) it.remove();
+            }
+        }
+
         return result;
     }
 
+    /**
+     * Take advantage of fast bulk loading of ACLs. If some are missing (this can be due to some kind of stale-cache
+     * state?) we don't know which ones, so fall back to loading them one at a time; those will be absent from the
+     * result.
+     *
+     * @param identities
+     * @return
+     */
+    private Map<ObjectIdentity, Acl> readAcls( Collection<ObjectIdentity> identities ) {
+        try {
+            return aclService.readAclsById( new ArrayList<>( identities ) );
+        } catch ( NotFoundException e ) {
+            Map<ObjectIdentity, Acl> acls = new HashMap<>();
+            for ( ObjectIdentity oi : identities ) {
+                try {
+                    acls.put( oi, aclService.readAclById( oi ) );
+                } catch ( NotFoundException e1 ) {
+                    log.warn( e1.getMessage() );
+                }
+            }
+            return acls;
+        }
+    }
+
     /**
      * @param domainObject
-     * @param requiredPermissions
+     * @param requiredPermissions any of which is enough
      * @param groupName
      * @return
      */
     private boolean groupHasPermission( Securable domainObject, List<Permission> requiredPermissions, String groupName ) {
         ObjectIdentity objectIdentity = objectIdentityRetrievalStrategy.getObjectIdentity( domainObject );
 
-        List<GrantedAuthority> auths = userManager.findGroupAuthorities( groupName );
-
-        List<Sid> sids = new ArrayList<>();
-        for ( GrantedAuthority a : auths ) {
-            AclGrantedAuthoritySid sid = new AclGrantedAuthoritySid( new SimpleGrantedAuthority(
-                    userManager.getRolePrefix() + a.getAuthority() ) );
-            sids.add( sid );
-        }
+        List<Sid> sids = getGroupSids( groupName );
 
         try {
             // Lookup only ACLs for SIDs we're interested in (this actually get them all)
             Acl acl = aclService.readAclById( objectIdentity, sids );
-            // administrative mode = true
-            return acl.isGranted( requiredPermissions, sids, true );
+            return isGrantedAny( acl, requiredPermissions, sids );
         } catch ( NotFoundException ignore ) {
             return false;
         }
@@ -1465,7 +2059,7 @@ public class SecurityServiceImpl implements SecurityService {
     }
 
     /*
-     * Private method that really doesn't work unless you are admin
+     * Private method that really doesn't work unless you are admin. Any of the requiredPermissions is enough.
      */
     private boolean hasPermission( Securable domainObject, List<Permission> requiredPermissions, String userName ) {
 
@@ -1473,100 +2067,134 @@ public class SecurityServiceImpl implements SecurityService {
         ObjectIdentity objectIdentity = objectIdentityRetrievalStrategy.getObjectIdentity( domainObject );
 
         // Obtain the SIDs applicable to the principal
-        UserDetails user = userManager.loadUserByUsername( userName );
-        Authentication authentication = new UsernamePasswordAuthenticationToken( userName, user.getPassword(),
-                user.getAuthorities() );
-        List<Sid> sids = sidRetrievalStrategy.getSids( authentication );
+        List<Sid> sids = userSidCache.getSids( userName );
 
         Acl acl = null;
 
         try {
             acl = aclService.readAclById( objectIdentity, sids );
-            // administrative mode = true
-            return acl.isGranted( requiredPermissions, sids, true );
+            return isGrantedAny( acl, requiredPermissions, sids );
         } catch ( NotFoundException ignore ) {
             return false;
         }
     }
 
-    private <T extends Securable> void populateGroupsEditableBy( Map<T, Collection<String>> result, String groupName,
-            Map<T, Boolean> groupHasPermission ) {
-        for ( T s : groupHasPermission.keySet() ) {
-            if ( groupHasPermission.get( s ) ) {
-                if ( !result.containsKey( s ) ) {
-                    result.put( s, new HashSet<String>() );
-                }
-                result.get( s ).add( groupName );
+    /**
+     * One pass over the entries of the ACL (not its parents), recording for each SID the decision of the first entry
+     * for each of GROUP_MASKS: 1 for grant, -1 for deny, 0 if there is none.
+     *
+     * @param acl
+     * @param sweeps cache
+     * @return
+     */
+    private Map<Sid, byte[]> sweep( Acl acl, Map<Acl, Map<Sid, byte[]>> sweeps ) {
+        Map<Sid, byte[]> decisions = sweeps.get( acl );
+        if ( decisions != null ) return decisions;
+
+        decisions = new HashMap<>();
+        for ( AccessControlEntry ace : acl.getEntries() ) {
+            int k = ArrayUtils.indexOf( GROUP_MASKS, ace.getPermission().getMask() );
+            if ( k < 0 ) continue;
+            byte[] d = decisions.get( ace.getSid() );
+            if ( d == null ) {
+                d = new byte[GROUP_MASKS.length];
+                decisions.put( ace.getSid(), d );
+            }
+            if ( d[k] == 0 ) {
+                d[k] = ( byte ) ( ace.isGranting() ? 1 : -1 );
             }
-
         }
+        sweeps.put( acl, decisions );
+        return decisions;
     }
 
     /**
-     * Wrapper method that calls removeOneGrantedAuthority to ensure that only one ace at a time is updated. A bit
-     * clunky but it ensures that the code is called as a complete unit, that is an update is performed and the array
-     * retrieved again after update. The reason is that we remove them by the entry index, which changes ... so we have
-     * to do it "iteratively".
-     *
-     * @param The object to remove the permissions from
-     * @param permission Permission to change.
-     * @param authority e.g. "GROUP_JOESLAB"
+     * @param users sorted
+     * @param offset
+     * @param limit
+     * @return
      */
-    private void removeGrantedAuthority( Securable object, Permission permission, String authority ) {
-        int numberOfAclsToRemove = 1;
-        // for 0 or 1 acls should only call once
-        while ( numberOfAclsToRemove > 0 ) {
-            numberOfAclsToRemove = removeOneGrantedAuthority( object, permission, authority );
+    private List<String> page( SortedSet<String> users, int offset, int limit ) {
+        List<String> result = new ArrayList<>( Math.max( 0, Math.min( limit, users.size() - offset ) ) );
+        int i = 0;
+        for ( String u : users ) {
+            if ( result.size() >= limit ) break;
+            if ( i++ >= offset ) {
+                result.add( u );
+            }
         }
+        return result;
     }
 
     /**
-     * Method removes just one ace and then informs calling method the number of aces to remove
+     * Add a granting entry to the end of the ACL itself, unless it already has one for the SID and permission.
      *
-     * @param object The object to remove the permissions from
-     * @param permission The permission to remove
-     * @param authority e.g. "GROUP_JOESLAB"
-     * @return Number of ace records that need removing
+     * @param acl
+     * @param permission
+     * @param sid
+     * @return true if the entry was added
      */
-    private int removeOneGrantedAuthority( Securable object, Permission permission, String authority ) {
-        int numberAclsToRemove = 0;
-
-        MutableAcl acl = getAcl( object );
-
-        if ( acl == null ) {
-            throw new IllegalArgumentException( "makePrivate is only valid for objects that have an ACL" );
+    private boolean addEntryIfAbsent( MutableAcl acl, Permission permission, Sid sid ) {
+        for ( AccessControlEntry entry : acl.getEntries() ) {
+            if ( entry.isGranting() && entry.getSid().equals( sid ) && entry.getPermission().equals( permission ) ) {
+                return false;
+            }
         }
+        acl.insertAce( acl.getEntries().size(), permission, sid, true );
+        return true;
+    }
 
-        List<Integer> toremove = new Vector<>();
-        for ( int i = 0; i < acl.getEntries().size(); i++ ) {
-            AccessControlEntry entry = acl.getEntries().get( i );
-
-            if ( !entry.getPermission().equals( permission ) ) {
+    /**
+     * Remove, from the ACL itself (not its parents), every entry for one of the SIDs with one of the permissions given
+     * for it. Entries are removed working backwards, so the indices stay valid and the ACL only needs to be written once.
+     *
+     * @param acl
+     * @param toRemove
+     * @return true if any entries were removed
+     */
+    private boolean removeEntries( MutableAcl acl, Map<Sid, Collection<Permission>> toRemove ) {
+        boolean removed = false;
+        List<AccessControlEntry> entries = acl.getEntries();
+        for ( int i = entries.size() - 1; i >= 0; i-- ) {
+            AccessControlEntry entry = entries.get( i );
+            Collection<Permission> permissions = toRemove.get( entry.getSid() );
+            if ( permissions == null || !permissions.contains( entry.getPermission() ) ) {
                 continue;
             }
-
-            Sid sid = entry.getSid();
-            if ( sid instanceof AclGrantedAuthoritySid
-                    && ( ( AclGrantedAuthoritySid ) sid ).getGrantedAuthority().equals( authority ) ) {
-                log.info( "Removing: " + permission + " from " + object + " granted to " + sid );
-                toremove.add( i );
-            } else {
-                log.debug( "Keeping: " + permission + " on " + object + " granted to " + sid );
-            }
+            log.info( "Removing: " + entry.getPermission() + " from " + acl.getObjectIdentity() + " granted to "
+                    + entry.getSid() );
+            acl.deleteAce( i );
+            removed = true;
         }
+        return removed;
+    }
 
-        if ( toremove.isEmpty() ) {
-            // this can happen commonly, no big deal.
-            if ( log.isDebugEnabled() ) log.debug( "No changes, didn't remove: " + authority );
-        } else if ( toremove.size() >= 1 ) {
-            numberAclsToRemove = toremove.size() - 1;
-            // take the first acl
-            acl.deleteAce( toremove.get( 0 ) );
-            aclService.updateAcl( acl );
-        }
+    /**
+     * @param authority e.g. "GROUP_JOESLAB"
+     * @param permissions
+     * @return the removal predicates for removeEntries
+     */
+    private Map<Sid, Collection<Permission>> authorityEntries( String authority, Permission... permissions ) {
+        return Collections.<Sid, Collection<Permission>> singletonMap( new AclGrantedAuthoritySid(
+                new SimpleGrantedAuthority( authority ) ), Arrays.asList( permissions ) );
+    }
 
-        return numberAclsToRemove;
+    private void publishEvent( UserManagerEvent.Type type, String userName, String groupName ) {
+        applicationEventPublisher.publishEvent( new UserManagerEvent( this, type, userName, groupName ) );
+    }
 
+    /**
+     * Work on one position of a bulk job; see forEachIndex.
+     */
+    private interface IndexedTask {
+        void run( int i );
     }
 
-}
\ No newline at end of file
+    /**
+     * The groups that can read, and edit, one securable.
+     */
+    private static class GroupAccess {
+        final Collection<String> editors = new HashSet<>();
+        final Collection<String> readers = new HashSet<>();
+    }
+}
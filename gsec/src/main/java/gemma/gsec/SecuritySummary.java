@@ -0,0 +1,108 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec;
+
+/**
+ * The security state of one object for one user, as needed to decorate value objects: whether the user can read it,
+ * edit it, or owns it, and whether it is public or shared. Instances are immutable and shared.
+ *
+ * @author paul
+ * @version $Id$
+ * @see SecurityService#getSecuritySummaries(java.util.List, java.util.List,
+ *      org.springframework.security.core.Authentication)
+ */
+public final class SecuritySummary {
+
+    private static final int OWNED = 1 << 2;
+
+    private static final int PUBLIC = 1 << 3;
+
+    private static final int READABLE = 1;
+
+    private static final int SHARED = 1 << 4;
+
+    private static final SecuritySummary[] values = new SecuritySummary[1 << 5];
+
+    private static final int WRITABLE = 1 << 1;
+
+    static {
+        for ( int flags = 0; flags < values.length; flags++ ) {
+            values[flags] = new SecuritySummary( flags );
+        }
+    }
+
+    /**
+     * @param readable the user has one of the permissions required for reading
+     * @param writable the user has WRITE or ADMINISTRATION permission
+     * @param owned the user owns the object, or is an administrator
+     * @param isPublic
+     * @param shared
+     * @return
+     */
+    public static SecuritySummary valueOf( boolean readable, boolean writable, boolean owned, boolean isPublic,
+            boolean shared ) {
+        int flags = ( readable ? READABLE : 0 ) | ( writable ? WRITABLE : 0 ) | ( owned ? OWNED : 0 )
+                | ( isPublic ? PUBLIC : 0 ) | ( shared ? SHARED : 0 );
+        return values[flags];
+    }
+
+    private final int flags;
+
+    private SecuritySummary( int flags ) {
+        this.flags = flags;
+    }
+
+    /**
+     * @return true if the user owns the object, or is an administrator
+     */
+    public boolean isOwned() {
+        return ( flags & OWNED ) != 0;
+    }
+
+    public boolean isPublic() {
+        return ( flags & PUBLIC ) != 0;
+    }
+
+    /**
+     * @return true if the user has one of the permissions that were required for reading
+     */
+    public boolean isReadable() {
+        return ( flags & READABLE ) != 0;
+    }
+
+    /**
+     * @return true if the object is readable by a group other than the administrators or agents
+     */
+    public boolean isShared() {
+        return ( flags & SHARED ) != 0;
+    }
+
+    /**
+     * @return true if the user has WRITE or ADMINISTRATION permission
+     */
+    public boolean isWritable() {
+        return ( flags & WRITABLE ) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SecuritySummary[readable: " + isReadable() + "; writable: " + isWritable() + "; owned: " + isOwned()
+                + "; public: " + isPublic() + "; shared: " + isShared() + "]";
+    }
+}
@@ -18,26 +18,12 @@
  */
 package gemma.gsec.acl.afterinvocation;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.access.AccessDeniedException;
-import org.springframework.security.access.AfterInvocationProvider;
-import org.springframework.security.access.ConfigAttribute;
-import org.springframework.security.acls.afterinvocation.AbstractAclProvider;
 import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.Permission;
-import org.springframework.security.core.Authentication;
 
-import gemma.gsec.SecurityService;
-import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
-import gemma.gsec.model.Securable;
+import gemma.gsec.SecuritySummary;
 
 /**
  * Retain only Securables that the user owns. Entities shared with this user but owned by another user will be filtered
@@ -45,101 +31,21 @@ import gemma.gsec.model.Securable;
  *
  * @author thea
  * @version $Id: AclAfterFilterCollectionForUserOwnedData.java,v 1.3 2013/09/14 16:56:02 paul Exp $
- * @see AfterInvocationProvider
  */
-public class AclAfterFilterCollectionForUserOwnedData extends AbstractAclProvider {
-
-    private Log log = LogFactory.getLog( this.getClass() );
-
-    @Autowired
-    private SecurityService securityService;
+public class AclAfterFilterCollectionForUserOwnedData extends SecuritySummaryFilteringProvider {
 
     public AclAfterFilterCollectionForUserOwnedData( AclService aclService, List<Permission> requirePermission ) {
         super( aclService, "AFTER_ACL_FILTER_USER_OWNED_DATA", requirePermission );
-        this.setObjectIdentityRetrievalStrategy( new ValueObjectAwareIdentityRetrievalStrategyImpl() );
-
     }
 
     /*
      * (non-Javadoc)
      *
-     * @seeorg.springframework.security.afterinvocation.AfterInvocationProvider#decide(org.springframework.security.
-     * Authentication, java.lang.Object, org.springframework.security.ConfigAttributeDefinition, java.lang.Object)
+     * @see gemma.gsec.acl.afterinvocation.SecuritySummaryFilteringProvider#isKept(gemma.gsec.SecuritySummary)
      */
     @Override
-    @SuppressWarnings("unchecked")
-    public final Object decide( Authentication authentication, Object object, Collection<ConfigAttribute> config,
-            Object returnedObject ) throws AccessDeniedException {
-        Iterator<ConfigAttribute> iter = config.iterator();
-
-        while ( iter.hasNext() ) {
-            ConfigAttribute attr = iter.next();
-
-            if ( this.supports( attr ) ) {
-                // Need to process the Collection for this invocation
-                if ( returnedObject == null ) {
-                    log.debug( "Return object is null, skipping" );
-
-                    return null;
-                }
-
-                Filterer<Object> filterer = null;
-
-                boolean wasSingleton = false;
-                if ( returnedObject instanceof Collection ) {
-                    Collection<Object> collection = ( Collection<Object> ) returnedObject;
-                    filterer = new CollectionFilterer<>( collection );
-                } else if ( returnedObject.getClass().isArray() ) {
-                    Object[] array = ( Object[] ) returnedObject;
-                    filterer = new ArrayFilterer<>( array );
-                } else {
-                    // shortcut, just put the object in a collection. (PP)
-                    wasSingleton = true;
-                    Collection<Object> coll = new HashSet<>();
-                    coll.add( returnedObject );
-                    filterer = new CollectionFilterer<>( coll );
-                }
-
-                // Locate unauthorised Collection elements
-                Iterator<Object> collectionIter = filterer.iterator();
-
-                /*
-                 * Collect up the securables
-                 */
-                Collection<Securable> securablesToFilter = new HashSet<>();
-                while ( collectionIter.hasNext() ) {
-                    Object domainObject = collectionIter.next();
-                    if ( !Securable.class.isAssignableFrom( domainObject.getClass() ) ) {
-                        continue;
-                    }
-                    securablesToFilter.add( ( Securable ) domainObject );
-                }
-
-                /*
-                 * Adapted from
-                 * ubic.gemma.security.authorization.acl.AclAfterFilterCollectionForMyData.decide(Authentication,
-                 * Object, Collection<ConfigAttribute>, Object)
-                 */
-                Map<Securable, Boolean> ownership = securityService.areOwnedByCurrentUser( securablesToFilter );
-
-                for ( Securable s : ownership.keySet() ) {
-                    if ( !ownership.containsKey( s ) || !ownership.get( s ) ) {
-                        filterer.remove( s );
-                    }
-                }
-
-                if ( wasSingleton ) {
-                    if ( ( ( Collection<Securable> ) filterer.getFilteredObject() ).size() == 1 ) {
-                        return ( ( Collection<Securable> ) filterer.getFilteredObject() ).iterator().next();
-                    }
-                    return null;
-
-                }
-                return filterer.getFilteredObject();
-            }
-        }
-
-        return returnedObject;
+    protected boolean isKept( SecuritySummary summary ) {
+        return summary.isOwned();
     }
 
 }
@@ -18,10 +18,10 @@
  */
 package gemma.gsec.acl.afterinvocation;
 
+import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -34,12 +34,12 @@ import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.ConfigAttribute;
 import org.springframework.security.acls.afterinvocation.AbstractAclProvider;
 import org.springframework.security.acls.domain.BasePermission;
-import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.core.Authentication;
 
 import gemma.gsec.SecurityService;
+import gemma.gsec.SecuritySummary;
 import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
 import gemma.gsec.model.SecureValueObject;
 import gemma.gsec.util.SecurityUtil;
@@ -49,7 +49,9 @@ import gemma.gsec.util.SecurityUtil;
  * values are NOT checked.
  * <p>
  * As a side effect, it fills in security status information in the value objects, on those object for which permission
- * was granted.
+ * was granted. The ACLs are loaded once, and a single pass both filters and fills in, keeping the order. userCanWrite
+ * is set if the user owns the object or has WRITE or ADMINISTRATION permission on it, or if WRITE was already required
+ * to read it.
  *
  * @author cmcdonald
  * @version $Id: AclAfterFilterValueObjectCollectionProvider.java,v 1.9 2013/09/14 16:56:01 paul Exp $
@@ -87,112 +89,104 @@ public class AclAfterFilterValueObjectCollectionProvider extends AbstractAclProv
                     return returnedObject;
                 }
 
-                Filterer<Object> filterer = null;
-                boolean isMap = false;
+                StopWatch timer = new StopWatch();
+                timer.start();
+
+                /*
+                 * Collect up the securevalueobjects in iteration order; anything else is left alone.
+                 */
+                Collection<Object> elements;
+                Object[] array = null;
                 if ( returnedObject instanceof Map ) {
-                    isMap = true;
-                    filterer = new MapFilterer<>( ( Map<Object, Object> ) returnedObject );
+                    elements = ( ( Map<Object, Object> ) returnedObject ).keySet();
                 } else if ( returnedObject instanceof Collection ) {
-                    Collection<Object> collection = ( Collection<Object> ) returnedObject;
-                    filterer = new CollectionFilterer<>( collection );
+                    elements = ( Collection<Object> ) returnedObject;
                 } else if ( returnedObject.getClass().isArray() ) {
-                    Object[] array = ( Object[] ) returnedObject;
-                    filterer = new ArrayFilterer<>( array );
+                    array = ( Object[] ) returnedObject;
+                    elements = Arrays.asList( array );
                 } else {
                     throw new UnsupportedOperationException( "Must be a Collection" );
                 }
 
-                // Locate unauthorised Collection elements
-                Iterator<Object> collectionIter = filterer.iterator();
+                List<SecureValueObject> securables = new ArrayList<>( elements.size() );
+                for ( Object o : elements ) {
+                    securables.add( o instanceof SecureValueObject ? ( SecureValueObject ) o : null );
+                }
+                long collectTime = timer.getTime();
 
                 /*
-                 * Collect up the securevalueobjects
+                 * One call for everything we need to know: the identities are resolved, the ACLs loaded and evaluated
+                 * once.
                  */
-                Collection<SecureValueObject> securablesToFilter = new HashSet<>();
-                while ( collectionIter.hasNext() ) {
-                    Object domainObject = collectionIter.next();
-                    if ( !SecureValueObject.class.isAssignableFrom( domainObject.getClass() ) ) {
-                        continue;
-                    }
-                    securablesToFilter.add( ( SecureValueObject ) domainObject );
-                }
-
-                Map<SecureValueObject, Boolean> hasPerm = securityService.hasPermissionVO( securablesToFilter,
+                List<SecuritySummary> summaries = securityService.getSecuritySummaries( securables,
                         this.requirePermission, authentication );
+                long checkTime = timer.getTime() - collectTime;
 
-                for ( SecureValueObject s : hasPerm.keySet() ) {
-                    if ( !hasPerm.get( s ) ) {
-                        filterer.remove( s );
-                    }
-                }
+                // Filling in the optional fields is only relevant if you are logged in.
+                boolean decorate = SecurityUtil.isUserLoggedIn();
 
-                // Following are only relevant if you are logged in.
-                if ( !SecurityUtil.isUserLoggedIn() ) {
-                    return filterer.getFilteredObject();
-                }
-
-                StopWatch timer = new StopWatch();
-                timer.start();
+                // If write permission was required, we already know.
+                boolean writeRequired = requirePermission.contains( BasePermission.WRITE );
 
-                Collection<SecureValueObject> securables;
-                if ( isMap ) {
-                    Map<SecureValueObject, ?> filteredObject = ( Map<SecureValueObject, ?> ) filterer
-                            .getFilteredObject();
-                    if ( filteredObject.isEmpty() ) {
-                        return filteredObject;
+                /*
+                 * One pass that both removes and decorates, keeping the order.
+                 */
+                Object result;
+                int kept = 0;
+                if ( array != null ) {
+                    Object[] filtered = ( Object[] ) Array.newInstance( array.getClass().getComponentType(),
+                            array.length );
+                    for ( int i = 0; i < array.length; i++ ) {
+                        if ( apply( securables.get( i ), summaries.get( i ), decorate, writeRequired ) ) {
+                            filtered[kept++] = array[i];
+                        }
                     }
-                    securables = filteredObject.keySet();
+                    result = kept == array.length ? array : Arrays.copyOf( filtered, kept );
                 } else {
-                    Collection<SecureValueObject> filteredObject = ( Collection<SecureValueObject> ) filterer
-                            .getFilteredObject();
-                    if ( filteredObject.isEmpty() ) {
-                        return filteredObject;
+                    int i = 0;
+                    for ( Iterator<Object> it = elements.iterator(); it.hasNext(); i++ ) {
+                        it.next();
+                        if ( apply( securables.get( i ), summaries.get( i ), decorate, writeRequired ) ) {
+                            kept++;
+                        } else {
+                            it.remove();
+                        }
                     }
-                    securables = filteredObject;
-                }
-
-                Map<SecureValueObject, Acl> acls = securityService.getAcls( securables );
-                Map<SecureValueObject, Boolean> areOwnedByCurrentUser = securityService
-                        .areOwnedByCurrentUser( securables );
-                boolean userIsAdmin = SecurityUtil.isUserAdmin();
-
-                // Only need to check for write permissions if we can't already infer it.
-                Map<SecureValueObject, Boolean> canWrite = new HashMap<>();
-                if ( !userIsAdmin && !requirePermission.contains( BasePermission.WRITE ) ) {
-                    List<Permission> writePermissions = new ArrayList<>();
-                    writePermissions.add( BasePermission.WRITE );
-                    canWrite = securityService.hasPermissionVO( securablesToFilter, this.requirePermission,
-                            authentication );
+                    result = returnedObject;
                 }
 
-                for ( SecureValueObject svo : securables ) {
-
-                    /*
-                     * Populate optional fields in the ValueObject.
-                     */
-
-                    // this should be fast, but could be even faster.
-                    Acl acl = acls.get( svo );
-                    assert acl != null;
-                    svo.setIsPublic( !SecurityUtil.isPrivate( acl ) );
-                    svo.setIsShared( SecurityUtil.isShared( acl ) );
-                    svo.setUserOwned( areOwnedByCurrentUser.get( svo ) );
-
-                    if ( svo.getUserOwned() || userIsAdmin || requirePermission.contains( BasePermission.WRITE ) ) {
-                        svo.setUserCanWrite( true );
-                    } else {
-                        svo.setUserCanWrite( canWrite.containsKey( svo ) && canWrite.get( svo ) );
-                    }
+                if ( logger.isDebugEnabled() ) {
+                    logger.debug( "Filtered " + securables.size() + " value objects to " + kept + ": collect "
+                            + collectTime + "ms, check " + checkTime + "ms, apply "
+                            + ( timer.getTime() - collectTime - checkTime ) + "ms" );
                 }
-
-                if ( timer.getTime() > 100 ) {
-                    logger.info( "Fill in security details on " + acls.keySet().size() + " value objects: "
-                            + timer.getTime() + "ms" );
-                }
-                return filterer.getFilteredObject();
+                return result;
             }
         }
 
         return returnedObject;
     }
+
+    /**
+     * @param svo the element, or null if the element isn't a SecureValueObject (it is kept as is)
+     * @param summary for the element, or null if there is no ACL
+     * @param decorate whether to fill in the security details
+     * @param writeRequired if WRITE is one of the required permissions, so anything kept is writable
+     * @return true if the element is to be kept
+     */
+    private boolean apply( SecureValueObject svo, SecuritySummary summary, boolean decorate, boolean writeRequired ) {
+        if ( svo == null ) return true;
+        if ( summary == null || !summary.isReadable() ) return false;
+
+        if ( decorate ) {
+            /*
+             * Populate optional fields in the ValueObject.
+             */
+            svo.setIsPublic( summary.isPublic() );
+            svo.setIsShared( summary.isShared() );
+            svo.setUserOwned( summary.isOwned() );
+            svo.setUserCanWrite( summary.isOwned() || writeRequired || summary.isWritable() );
+        }
+        return true;
+    }
 }
@@ -18,6 +18,8 @@
  */
 package gemma.gsec.acl.afterinvocation;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -25,6 +27,7 @@ import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.AuthorizationServiceException;
 import org.springframework.security.access.ConfigAttribute;
@@ -33,6 +36,7 @@ import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.core.Authentication;
 
+import gemma.gsec.SecurityService;
 import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
 import gemma.gsec.model.Securable;
 
@@ -40,6 +44,9 @@ import gemma.gsec.model.Securable;
  * Like the AclEntryAfterInvocationCollectionFilteringProvider, but filters on the keys AND values of a Map, where the
  * keys are Securable and the values MAY be Securable. If your keys are non-securable, use
  * {@link AclAfterInvocationMapValueFilteringProvider}
+ * <p>
+ * The keys and values are checked with one bulk call, and the map is filtered in place in one pass, so it keeps its
+ * type and order.
  *
  * @see org.springframework.security.acls.afterinvocation.AclEntryAfterInvocationCollectionFilteringProvider
  * @author paul
@@ -50,6 +57,9 @@ public class AclAfterInvocationMapFilteringProvider extends AbstractAclProvider
 
     protected static final Log logger = LogFactory.getLog( AclAfterInvocationMapFilteringProvider.class );
 
+    @Autowired
+    private SecurityService securityService;
+
     public AclAfterInvocationMapFilteringProvider( AclService aclService, List<Permission> requirePermission ) {
         super( aclService, "AFTER_ACL_MAP_READ", requirePermission );
         this.setObjectIdentityRetrievalStrategy( new ValueObjectAwareIdentityRetrievalStrategyImpl() );
@@ -83,56 +93,66 @@ public class AclAfterInvocationMapFilteringProvider extends AbstractAclProvider
                     return null;
                 }
 
-                Filterer<Object> filterer = null;
-                Map<? extends Object, Object> map;
-
-                if ( returnedObject instanceof Map ) {
-                    map = ( Map<? extends Object, Object> ) returnedObject;
-                    filterer = new MapFilterer<>( ( Map<Object, Object> ) map );
-                } else {
+                if ( !( returnedObject instanceof Map ) ) {
                     throw new AuthorizationServiceException( "A Map was required as the "
                             + "returnedObject, but the returnedObject was: " + returnedObject );
                 }
-
-                // Locate unauthorised Collection elements
-                Iterator<Object> collectionIter = filterer.iterator();
-
-                while ( collectionIter.hasNext() ) {
-                    Object domainObject = collectionIter.next();
-                    boolean hasPermission = false;
-                    if ( domainObject == null ) {
-                        hasPermission = true;
-                        continue;
-                    }
-
-                    /*
-                     * If the key is not a securable, it's okay; if it is we need explicit permission
-                     */
-                    boolean isSecurable = Securable.class.isAssignableFrom( domainObject.getClass() );
-
-                    hasPermission = !isSecurable || hasPermission( authentication, domainObject );
-
-                    /*
-                     * Check the VALUE as well.
-                     */
-                    Object value = map.get( domainObject );
-                    if ( value != null && Securable.class.isAssignableFrom( value.getClass() ) ) {
-                        hasPermission = hasPermission( authentication, value ) && hasPermission;
-                    }
-
-                    if ( !hasPermission ) {
-                        filterer.remove( domainObject );
+                Map<Object, Object> map = ( Map<Object, Object> ) returnedObject;
+
+                /*
+                 * Collect up the securable keys and values (in entry order, keys then values), and check them in one
+                 * go.
+                 */
+                int n = map.size();
+                List<Securable> securables = new ArrayList<>( 2 * n );
+                for ( Map.Entry<Object, Object> e : map.entrySet() ) {
+                    securables.add( e.getKey() instanceof Securable ? ( Securable ) e.getKey() : null );
+                }
+                for ( Map.Entry<Object, Object> e : map.entrySet() ) {
+                    // if the key is null the entry is kept regardless.
+                    securables.add( e.getKey() != null && e.getValue() instanceof Securable ? ( Securable ) e
+                            .getValue() : null );
+                }
+                BitSet granted = securityService.hasPermission( securables, this.requirePermission,
+                        sidRetrievalStrategy.getSids( authentication ) );
+
+                /*
+                 * One pass over the entries, removing in place so the map keeps its type and order. A null or
+                 * non-securable key is okay; if it is securable we need explicit permission. Securable values need
+                 * permission as well.
+                 */
+                int originalSize = map.size();
+                int i = 0;
+                for ( Iterator<Map.Entry<Object, Object>> it = map.entrySet().iterator(); it.hasNext(); i++ ) {
+                    Map.Entry<Object, Object> e = it.next();
+                    if ( !isAllowed( securables, granted, i ) || !isAllowed( securables, granted, n + i ) ) {
+                        it.remove();
 
                         if ( logger.isDebugEnabled() ) {
-                            logger.debug( "Principal is NOT authorised for element: " + domainObject );
+                            logger.debug( "Principal is NOT authorised for element: " + e.getKey() );
                         }
                     }
                 }
 
-                return filterer.getFilteredObject();
+                if ( logger.isDebugEnabled() && originalSize != map.size() ) {
+                    logger.debug( "Original map contained " + originalSize + " elements; now contains " + map.size()
+                            + " elements" );
+                }
+
+                return map;
             }
         }
 
         return returnedObject;
     }
+
+    /**
+     * @param securables
+     * @param granted
+     * @param i
+     * @return true if the object at i isn't securable, or permission was granted on it
+     */
+    private boolean isAllowed( List<Securable> securables, BitSet granted, int i ) {
+        return securables.get( i ) == null || granted.get( i );
+    }
 }
@@ -18,6 +18,8 @@
  */
 package gemma.gsec.acl.afterinvocation;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -25,6 +27,7 @@ import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.AuthorizationServiceException;
 import org.springframework.security.access.ConfigAttribute;
@@ -33,6 +36,7 @@ import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.core.Authentication;
 
+import gemma.gsec.SecurityService;
 import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
 import gemma.gsec.model.Securable;
 
@@ -40,6 +44,9 @@ import gemma.gsec.model.Securable;
  * Filter a one-to-one map where the keys are NON-SECURABLE and the values ARE securable (or at least, can be). The
  * values can be a mixture of securable or non-securable. If you are using a map where both they keys and values are
  * securable, use {@link AclAfterInvocationMapFilteringProvider}
+ * <p>
+ * The values are checked with one bulk call, and the map is filtered in place in one pass, so it keeps its type and
+ * order.
  *
  * @author paul
  * @version $Id: AclAfterInvocationMapValueFilteringProvider.java,v 1.6 2013/09/14 16:56:00 paul Exp $
@@ -49,6 +56,9 @@ public class AclAfterInvocationMapValueFilteringProvider extends AbstractAclProv
 
     protected static final Log logger = LogFactory.getLog( AclAfterInvocationMapFilteringProvider.class );
 
+    @Autowired
+    private SecurityService securityService;
+
     public AclAfterInvocationMapValueFilteringProvider( AclService aclService, List<Permission> requirePermission ) {
         super( aclService, "AFTER_ACL_MAP_VALUES_READ", requirePermission );
         this.setObjectIdentityRetrievalStrategy( new ValueObjectAwareIdentityRetrievalStrategyImpl() );
@@ -82,42 +92,45 @@ public class AclAfterInvocationMapValueFilteringProvider extends AbstractAclProv
                     return null;
                 }
 
-                Filterer<Object> filterer = null;
-
-                if ( returnedObject instanceof Map ) {
-                    Map<? extends Object, Object> map = ( Map<? extends Object, Object> ) returnedObject;
-                    filterer = new MapFilterer<>( ( Map<Object, Object> ) map );
-                } else {
+                if ( !( returnedObject instanceof Map ) ) {
                     throw new AuthorizationServiceException( "A Map was required as the "
                             + "returnedObject, but the returnedObject was: " + returnedObject );
                 }
-
-                // Locate unauthorised Collection elements
-                Iterator<Object> collectionIter = filterer.iterator();
-
-                while ( collectionIter.hasNext() ) {
-                    Object domainObject = collectionIter.next();
-
-                    boolean hasPermission = false;
-
-                    if ( domainObject == null ) {
-                        hasPermission = true;
-                    } else if ( !Securable.class.isAssignableFrom( domainObject.getClass() ) ) {
-                        hasPermission = true;
-                    } else {
-                        hasPermission = hasPermission( authentication, domainObject );
-                    }
-
-                    if ( !hasPermission ) {
-                        filterer.remove( domainObject );
+                Map<Object, Object> map = ( Map<Object, Object> ) returnedObject;
+
+                /*
+                 * Collect up the securable values, in entry order, and check them in one go.
+                 */
+                List<Securable> securables = new ArrayList<>( map.size() );
+                for ( Object value : map.values() ) {
+                    securables.add( value instanceof Securable ? ( Securable ) value : null );
+                }
+                BitSet granted = securityService.hasPermission( securables, this.requirePermission,
+                        sidRetrievalStrategy.getSids( authentication ) );
+
+                /*
+                 * One pass over the entries, removing in place so the map keeps its type and order. Null and
+                 * non-securable values are okay.
+                 */
+                int originalSize = map.size();
+                int i = 0;
+                for ( Iterator<Map.Entry<Object, Object>> it = map.entrySet().iterator(); it.hasNext(); i++ ) {
+                    Map.Entry<Object, Object> e = it.next();
+                    if ( securables.get( i ) != null && !granted.get( i ) ) {
+                        it.remove();
 
                         if ( logger.isDebugEnabled() ) {
-                            logger.debug( "Principal is NOT authorised for element: " + domainObject );
+                            logger.debug( "Principal is NOT authorised for element: " + e.getValue() );
                         }
                     }
                 }
 
-                return filterer.getFilteredObject();
+                if ( logger.isDebugEnabled() && originalSize != map.size() ) {
+                    logger.debug( "Original map contained " + originalSize + " elements; now contains " + map.size()
+                            + " elements" );
+                }
+
+                return map;
             }
         }
 
@@ -20,10 +20,11 @@
 package gemma.gsec.acl.afterinvocation;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
-import org.apache.commons.lang3.time.StopWatch;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +34,7 @@ import org.springframework.security.access.ConfigAttribute;
 import org.springframework.security.acls.afterinvocation.AbstractAclProvider;
 import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
 import org.springframework.security.core.Authentication;
 
 import gemma.gsec.SecurityService;
@@ -41,7 +43,13 @@ import gemma.gsec.model.Securable;
 
 /**
  * Overrides the functionality of the spring-provided AclEntryAfterInvocationCollectionFilteringProvider to be more
- * efficient with large collections.
+ * efficient with large collections. Iterator and (non-collection) Iterable return values are filtered lazily, a chunk
+ * at a time, as the caller consumes them.
+ * <p>
+ * Lazy filtering happens after the secured method has returned. Only the first chunk of an Iterator is checked here,
+ * in decide; the rest of it, and all of an Iterable, is read from the source and checked as the caller iterates, which
+ * is outside the method's transaction and Hibernate session unless the caller has its own. Only secure methods this way
+ * if what they return can be used after that, e.g. because it is over results already in memory.
  *
  * @author Paul
  * @version $Id$
@@ -50,12 +58,23 @@ public class AclEntryAfterInvocationCollectionFilteringProvider<A extends Secura
 
     private static Log log = LogFactory.getLog( AclEntryAfterInvocationCollectionFilteringProvider.class );
 
+    /**
+     * How many elements of an Iterator or Iterable return value are checked at a time.
+     */
+    private int chunkSize = 100;
+
+    /**
+     * True if a subclass still overrides the deprecated {@link #filter(Filterer, List)}, so that is called instead.
+     */
+    private final boolean legacyFilter;
+
     @Autowired
     private SecurityService securityService;
 
     public AclEntryAfterInvocationCollectionFilteringProvider( AclService aclService, List<Permission> requirePermission ) {
         super( aclService, "AFTER_ACL_COLLECTION_READ", requirePermission );
         this.setObjectIdentityRetrievalStrategy( new ValueObjectAwareIdentityRetrievalStrategyImpl() );
+        this.legacyFilter = overridesLegacyFilter();
     }
 
     @Override
@@ -73,6 +92,20 @@ public class AclEntryAfterInvocationCollectionFilteringProvider<A extends Secura
                 continue;
             }
 
+            /*
+             * Iterators, and Iterables that aren't collections (so might be large or lazily produced), are filtered as
+             * they are consumed.
+             */
+            if ( returnedObject instanceof Iterator ) {
+                Iterator<A> filtered = new AclFilteringIterator<>( ( Iterator<A> ) returnedObject, securityService,
+                        this.requirePermission, sidRetrievalStrategy.getSids( authentication ), chunkSize );
+                // check the first chunk now, rather than after decide has returned.
+                filtered.hasNext();
+                return filtered;
+            } else if ( returnedObject instanceof Iterable && !( returnedObject instanceof Collection ) ) {
+                return filtering( ( Iterable<A> ) returnedObject, sidRetrievalStrategy.getSids( authentication ) );
+            }
+
             // Need to process the Collection for this invocation
             Filterer<A> filterer;
 
@@ -81,28 +114,36 @@ public class AclEntryAfterInvocationCollectionFilteringProvider<A extends Secura
             } else if ( returnedObject.getClass().isArray() ) {
                 filterer = new ArrayFilterer<>( ( A[] ) returnedObject );
             } else {
-                throw new AuthorizationServiceException( "A Collection or an array (or null) was required as the "
+                throw new AuthorizationServiceException( "A Collection, Iterable, Iterator or an array (or null) was "
+                        + "required as the "
                         + "returnedObject, but the returnedObject was: " + returnedObject );
             }
 
-            StopWatch timer = new StopWatch();
-            timer.start();
             /*
-             * Collect up the securables
+             * Collect up the securables, keeping positions aligned with the filterer.
              */
             List<Securable> domainObjects = new ArrayList<>();
             for ( Object domainObject : filterer ) {
-                if ( !Securable.class.isAssignableFrom( domainObject.getClass() ) ) {
+                if ( domainObject == null || !Securable.class.isAssignableFrom( domainObject.getClass() ) ) {
+                    domainObjects.add( null );
                     continue;
                 }
                 domainObjects.add( ( Securable ) domainObject );
             }
 
             // bulk fetch...
-            List<Boolean> hasPerms = securityService.hasPermission( domainObjects, this.requirePermission,
-                    authentication );
+            BitSet hasPerms = securityService.hasPermission( domainObjects, this.requirePermission,
+                    sidRetrievalStrategy.getSids( authentication ) );
 
-            filter( filterer, hasPerms );
+            if ( legacyFilter ) {
+                List<Boolean> perms = new ArrayList<>( domainObjects.size() );
+                for ( int i = 0; i < domainObjects.size(); i++ ) {
+                    perms.add( domainObjects.get( i ) == null || hasPerms.get( i ) );
+                }
+                filter( filterer, perms );
+            } else {
+                filter( filterer, domainObjects, hasPerms );
+            }
 
             return filterer.getFilteredObject();
         }
@@ -110,18 +151,24 @@ public class AclEntryAfterInvocationCollectionFilteringProvider<A extends Secura
         return returnedObject;
     }
 
-    protected void filter( Filterer<A> filterer, List<Boolean> hasPerms ) {
+    /**
+     * @param chunkSize how many elements of an Iterator or Iterable return value are checked at a time (default 100)
+     */
+    public void setChunkSize( int chunkSize ) {
+        if ( chunkSize < 1 ) throw new IllegalArgumentException( "Chunk size must be at least 1" );
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param filterer
+     * @param domainObjects aligned with the filterer; null where the element is not a securable, in which case it is
+     *        kept
+     * @param hasPerms aligned with the filterer
+     */
+    protected void filter( Filterer<A> filterer, List<Securable> domainObjects, BitSet hasPerms ) {
         int i = 0;
         for ( A domainObject : filterer ) {
-            boolean hasPermission = false;
-
-            if ( domainObject == null ) {
-                hasPermission = true;
-            } else {
-                hasPermission = hasPerms.get( i );
-            }
-
-            if ( !hasPermission ) {
+            if ( domainObjects.get( i ) != null && !hasPerms.get( i ) ) {
                 filterer.remove( domainObject );
 
                 if ( log.isTraceEnabled() ) {
@@ -131,4 +178,54 @@ public class AclEntryAfterInvocationCollectionFilteringProvider<A extends Secura
             i++;
         }
     }
+
+    /**
+     * @param filterer
+     * @param hasPerms aligned with the filterer; null elements are kept regardless
+     * @deprecated override {@link #filter(Filterer, List, BitSet)} instead; this is only called if a subclass
+     *             overrides it.
+     */
+    @Deprecated
+    protected void filter( Filterer<A> filterer, List<Boolean> hasPerms ) {
+        List<Securable> domainObjects = new ArrayList<>( hasPerms.size() );
+        BitSet granted = new BitSet( hasPerms.size() );
+        int i = 0;
+        for ( A domainObject : filterer ) {
+            domainObjects.add( domainObject );
+            if ( hasPerms.get( i ) ) granted.set( i );
+            i++;
+        }
+        filter( filterer, domainObjects, granted );
+    }
+
+    /**
+     * @param iterable
+     * @param sids
+     * @return a view of the iterable that is filtered lazily each time it is iterated
+     */
+    private Iterable<A> filtering( final Iterable<A> iterable, final List<Sid> sids ) {
+        return new Iterable<A>() {
+            @Override
+            public Iterator<A> iterator() {
+                return new AclFilteringIterator<>( iterable.iterator(), securityService, requirePermission, sids,
+                        chunkSize );
+            }
+        };
+    }
+
+    /**
+     * @return true if a subclass declares {@link #filter(Filterer, List)}
+     */
+    private boolean overridesLegacyFilter() {
+        for ( Class<?> c = this.getClass(); c != AclEntryAfterInvocationCollectionFilteringProvider.class; c = c
+                .getSuperclass() ) {
+            try {
+                c.getDeclaredMethod( "filter", Filterer.class, List.class );
+                return true;
+            } catch ( NoSuchMethodException e ) {
+                // keep looking
+            }
+        }
+        return false;
+    }
 }
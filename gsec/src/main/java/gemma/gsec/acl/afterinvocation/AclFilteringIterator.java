@@ -0,0 +1,139 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec.acl.afterinvocation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+
+import gemma.gsec.SecurityService;
+import gemma.gsec.model.Securable;
+
+/**
+ * Lazily filters an iterator: elements are pulled from the source a chunk at a time and checked with one bulk ACL
+ * load per chunk, so at most one chunk is held, and a caller that stops early only pays for the chunks it reached.
+ * Elements that are not securables are kept.
+ *
+ * @author paul
+ * @version $Id$
+ */
+class AclFilteringIterator<T> implements Iterator<T> {
+
+    private final int chunkSize;
+
+    private final List<T> chunk;
+
+    private BitSet granted = new BitSet();
+
+    private int position = 0;
+
+    private final List<Permission> requiredPermissions;
+
+    private final SecurityService securityService;
+
+    private final List<Sid> sids;
+
+    private final Iterator<T> source;
+
+    /**
+     * @param source
+     * @param securityService
+     * @param requiredPermissions
+     * @param sids already resolved for the current user
+     * @param chunkSize how many elements to check at a time
+     */
+    AclFilteringIterator( Iterator<T> source, SecurityService securityService, List<Permission> requiredPermissions,
+            List<Sid> sids, int chunkSize ) {
+        this.source = source;
+        this.securityService = securityService;
+        this.requiredPermissions = requiredPermissions;
+        this.sids = sids;
+        this.chunkSize = chunkSize;
+        this.chunk = new ArrayList<>( chunkSize );
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        while ( true ) {
+            position = granted.nextSetBit( position );
+            if ( position >= 0 && position < chunk.size() ) {
+                return true;
+            }
+            if ( !source.hasNext() ) {
+                position = chunk.size();
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public T next() {
+        if ( !hasNext() ) {
+            throw new NoSuchElementException();
+        }
+        return chunk.get( position++ );
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Read and check the next chunk.
+     */
+    private void fill() {
+        chunk.clear();
+        while ( chunk.size() < chunkSize && source.hasNext() ) {
+            chunk.add( source.next() );
+        }
+
+        List<Securable> securables = new ArrayList<>( chunk.size() );
+        for ( T o : chunk ) {
+            securables.add( o instanceof Securable ? ( Securable ) o : null );
+        }
+
+        granted = securityService.hasPermission( securables, requiredPermissions, sids );
+        for ( int i = 0; i < securables.size(); i++ ) {
+            if ( securables.get( i ) == null ) granted.set( i );
+        }
+        position = 0;
+    }
+}
@@ -15,16 +15,18 @@
 package gemma.gsec.acl.afterinvocation;
 
 import java.lang.reflect.Array;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * A filter used to filter arrays. (This repeats code in a private class of spring security)
+ * <p>
+ * Removals are recorded as positions, and the filtered array is built in one pass. Elements are matched by identity
+ * first, and by equals otherwise.
  *
  * @author Ben Alex
  * @author Paulo Neves
@@ -34,16 +36,20 @@ public class ArrayFilterer<T> implements Filterer<T> {
 
     protected static final Log logger = LogFactory.getLog( ArrayFilterer.class );
 
-    final Set<T> removeList;
+    final BitSet removed;
     final T[] list;
 
+    /*
+     * Position of the element last returned by the iterator.
+     */
+    private int cursor = -1;
+
     ArrayFilterer( T[] list ) {
         this.list = list;
 
-        // Collect the removed objects to a HashSet so that
-        // it is fast to lookup them when a filtered array
-        // is constructed.
-        removeList = new HashSet<>();
+        // Record the positions of the removed objects, so the filtered
+        // array can be built without looking them up.
+        removed = new BitSet( list.length );
     }
 
     /**
@@ -53,17 +59,12 @@ public class ArrayFilterer<T> implements Filterer<T> {
     public T[] getFilteredObject() {
         // Recreate an array of same type and filter the removed objects.
         int originalSize = list.length;
-        int sizeOfResultingList = originalSize - removeList.size();
+        int sizeOfResultingList = originalSize - removed.cardinality();
         @SuppressWarnings("unchecked")
         T[] filtered = ( T[] ) Array.newInstance( list.getClass().getComponentType(), sizeOfResultingList );
 
-        for ( int i = 0, j = 0; i < list.length; i++ ) {
-            T object = list[i];
-
-            if ( !removeList.contains( object ) ) {
-                filtered[j] = object;
-                j++;
-            }
+        for ( int i = removed.nextClearBit( 0 ), j = 0; i < originalSize; i = removed.nextClearBit( i + 1 ) ) {
+            filtered[j++] = list[i];
         }
 
         if ( logger.isDebugEnabled() ) {
@@ -79,6 +80,7 @@ public class ArrayFilterer<T> implements Filterer<T> {
      */
     @Override
     public Iterator<T> iterator() {
+        cursor = -1;
         return new Iterator<T>() {
             private int index = 0;
 
@@ -92,6 +94,7 @@ public class ArrayFilterer<T> implements Filterer<T> {
                 if ( hasNext() == false ) {
                     throw new NoSuchElementException();
                 }
+                cursor = index;
                 return list[index++];
             }
 
@@ -103,10 +106,30 @@ public class ArrayFilterer<T> implements Filterer<T> {
     }
 
     /**
+     * Normally called with the element just returned by the iterator; otherwise the first occurrence that isn't already
+     * removed is, looking for an identical element and then for an equal one.
+     *
      * @see org.springframework.security.acls.afterinvocation.Filterer#remove(java.lang.Object)
      */
     @Override
     public void remove( T object ) {
-        removeList.add( object );
+        if ( cursor >= 0 && list[cursor] == object ) {
+            removed.set( cursor );
+            return;
+        }
+        int equal = -1;
+        for ( int i = 0; i < list.length; i++ ) {
+            if ( removed.get( i ) ) continue;
+            if ( list[i] == object ) {
+                removed.set( i );
+                return;
+            }
+            if ( equal < 0 && list[i] != null && list[i].equals( object ) ) {
+                equal = i;
+            }
+        }
+        if ( equal >= 0 ) {
+            removed.set( equal );
+        }
     }
 }
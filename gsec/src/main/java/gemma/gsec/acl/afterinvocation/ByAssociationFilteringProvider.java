@@ -19,10 +19,13 @@
 package gemma.gsec.acl.afterinvocation;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,6 +34,7 @@ import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.ConfigAttribute;
 import org.springframework.security.acls.afterinvocation.AbstractAclProvider;
 import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.core.Authentication;
 
@@ -105,8 +109,9 @@ public abstract class ByAssociationFilteringProvider<T extends Securable, A> ext
                     filterer = new CollectionFilterer<>( coll );
                 }
 
-                List<Boolean> hasPerms = getDomainObjectPermissionDecisions( authentication, filterer );
-                filter( filterer, hasPerms );
+                List<T> domainObjects = getAssociatedSecurables( filterer );
+                BitSet hasPerms = hasPermission( domainObjects, authentication );
+                filter( filterer, domainObjects, hasPerms );
 
                 if ( wasSingleton ) {
                     if ( ( ( Collection<A> ) filterer.getFilteredObject() ).size() == 1 ) {
@@ -161,12 +166,13 @@ public abstract class ByAssociationFilteringProvider<T extends Securable, A> ext
 
     /**
      * @param filterer
-     * @param hasPerms
+     * @param domainObjects the associated securables, in the same order as the filterer's iterator
+     * @param hasPerms in the same order as the filterer's iterator.
      */
-    private void filter( Filterer<A> filterer, List<Boolean> hasPerms ) {
+    private void filter( Filterer<A> filterer, List<T> domainObjects, BitSet hasPerms ) {
         int i = 0;
         for ( A targetDomainObject : filterer ) {
-            T domainObject = getAssociatedSecurable( targetDomainObject );
+            T domainObject = domainObjects.get( i );
             boolean hasPermission = false;
 
             if ( domainObject == null ) {
@@ -186,18 +192,65 @@ public abstract class ByAssociationFilteringProvider<T extends Securable, A> ext
         }
     }
 
+    /**
+     * Check each distinct associated securable once, and fan the decisions back out. Most of the elements share one or
+     * a few parents, but those are often (different) proxies, so they are told apart by their identity (class and id)
+     * rather than equals.
+     *
+     * @param domainObjects the associated securables, in the same order as the filterer's iterator; may contain nulls
+     * @param authentication
+     * @return decisions in the same order as domainObjects (false for nulls)
+     */
+    private BitSet hasPermission( List<T> domainObjects, Authentication authentication ) {
+        Map<ObjectIdentity, Integer> distinct = new HashMap<>();
+        List<T> unique = new ArrayList<>();
+        int[] slots = new int[domainObjects.size()];
+
+        for ( int i = 0; i < slots.length; i++ ) {
+            T domainObject = domainObjects.get( i );
+            if ( domainObject == null ) {
+                slots[i] = -1;
+                continue;
+            }
+            ObjectIdentity oi = objectIdentityRetrievalStrategy.getObjectIdentity( domainObject );
+            Integer slot = distinct.get( oi );
+            if ( slot == null ) {
+                slot = unique.size();
+                distinct.put( oi, slot );
+                unique.add( domainObject );
+            }
+            slots[i] = slot;
+        }
+
+        BitSet uniquePerms = securityService.hasPermission( unique, this.requirePermission,
+                sidRetrievalStrategy.getSids( authentication ) );
+
+        BitSet result = new BitSet( slots.length );
+        for ( int i = 0; i < slots.length; i++ ) {
+            if ( slots[i] >= 0 && uniquePerms.get( slots[i] ) ) {
+                result.set( i );
+            }
+        }
+
+        if ( logger.isDebugEnabled() ) {
+            logger.debug( "Checked " + unique.size() + " distinct associated securables for " + slots.length
+                    + " elements" );
+        }
+        return result;
+    }
+
     /**
      * Save time by getting the associated (parent) domain objects. Often there is just one; or a small number compared
      * to the large number of targetdomainobjects.
      * <p>
      * Problem: I wanted to use a Set so I would check permissions for the minimum number of objects. However, we're not
-     * in a transaction here, so the Securables are often proxies. So we can't hash them.
+     * in a transaction here, so the Securables are often proxies. So we can't hash them; see
+     * {@link #hasPermission(List, Authentication)} for how they are deduplicated instead.
      *
-     * @param authentication
      * @param filterer
-     * @return list of booleans in same order as the filterer's iterator. True if haspermissions, false otherwise.
+     * @return list of associated securables in same order as the filterer's iterator.
      */
-    private List<Boolean> getDomainObjectPermissionDecisions( Authentication authentication, Filterer<A> filterer ) {
+    private List<T> getAssociatedSecurables( Filterer<A> filterer ) {
         // collect up the securables.
         Iterator<A> collectionIter = filterer.iterator();
         List<T> domainObjects = new ArrayList<>( 100 );
@@ -206,8 +259,6 @@ public abstract class ByAssociationFilteringProvider<T extends Securable, A> ext
             T domainObject = getAssociatedSecurable( targetDomainObject );
             domainObjects.add( domainObject );
         }
-
-        List<Boolean> hasPerm = securityService.hasPermission( domainObjects, this.requirePermission, authentication );
-        return hasPerm;
+        return domainObjects;
     }
 }
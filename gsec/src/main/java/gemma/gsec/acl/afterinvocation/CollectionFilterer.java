@@ -15,16 +15,21 @@
 
 package gemma.gsec.acl.afterinvocation;
 
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.RandomAccess;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * A filter used to filter Collections.
+ * <p>
+ * Removals are recorded as positions, and the collection is compacted in one pass at the end, keeping its order.
+ * Elements are matched by identity first, as equals/hashCode are unreliable for Hibernate proxies, and by equals
+ * otherwise.
  *
  * @author Ben Alex
  * @author Paulo Neves
@@ -35,20 +40,26 @@ class CollectionFilterer<T> implements Filterer<T> {
     protected static final Log logger = LogFactory.getLog( CollectionFilterer.class );
 
     private Collection<T> collection;
-    private Iterator<T> collectionIter;
-    private Set<T> removeList;
+
+    /*
+     * Position of the element last returned by the iterator, and the element itself.
+     */
+    private int cursor = -1;
+    private T current;
+
+    private BitSet removed;
 
     CollectionFilterer( Collection<T> collection ) {
         this.collection = collection;
 
-        // We create a Set of objects to be removed from the Collection,
+        // We record the positions of objects to be removed from the Collection,
         // as ConcurrentModificationException prevents removal during
         // iteration, and making a new Collection to be returned is
         // problematic as the original Collection implementation passed
         // to the method may not necessarily be re-constructable (as
         // the Collection(collection) constructor is not guaranteed and
         // manually adding may lose sort order or other capabilities)
-        removeList = new HashSet<>();
+        removed = new BitSet( collection.size() );
     }
 
     /**
@@ -56,16 +67,29 @@ class CollectionFilterer<T> implements Filterer<T> {
      */
     @Override
     public Object getFilteredObject() {
-        // Now the Iterator has ended, remove Objects from Collection
-        Iterator<T> removeIter = removeList.iterator();
+        if ( removed.isEmpty() ) return collection;
 
         int originalSize = collection.size();
 
-        while ( removeIter.hasNext() ) {
-            collection.remove( removeIter.next() );
+        if ( collection instanceof List && collection instanceof RandomAccess ) {
+            // shift the kept elements down, then cut off the tail.
+            List<T> list = ( List<T> ) collection;
+            int j = removed.nextSetBit( 0 );
+            for ( int i = j; i < originalSize; i++ ) {
+                if ( !removed.get( i ) ) {
+                    list.set( j++, list.get( i ) );
+                }
+            }
+            list.subList( j, originalSize ).clear();
+        } else {
+            int i = 0;
+            for ( Iterator<T> it = collection.iterator(); it.hasNext(); i++ ) {
+                it.next();
+                if ( removed.get( i ) ) it.remove();
+            }
         }
 
-        if ( logger.isDebugEnabled() && originalSize != collection.size() ) {
+        if ( logger.isDebugEnabled() ) {
             logger.debug( "Original collection contained " + originalSize + " elements; now contains "
                     + collection.size() + " elements" );
         }
@@ -78,16 +102,65 @@ class CollectionFilterer<T> implements Filterer<T> {
      */
     @Override
     public Iterator<T> iterator() {
-        collectionIter = collection.iterator();
-
-        return collectionIter;
+        final Iterator<T> collectionIter = collection.iterator();
+        cursor = -1;
+        current = null;
+
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return collectionIter.hasNext();
+            }
+
+            @Override
+            public T next() {
+                current = collectionIter.next();
+                cursor++;
+                return current;
+            }
+
+            /**
+             * Removes the element last returned; as for {@link CollectionFilterer#remove(Object)}, it is taken out of
+             * the collection by {@link CollectionFilterer#getFilteredObject()}.
+             */
+            @Override
+            public void remove() {
+                if ( cursor < 0 || removed.get( cursor ) ) {
+                    throw new IllegalStateException();
+                }
+                removed.set( cursor );
+            }
+        };
     }
 
     /**
+     * Normally called with the element just returned by the iterator; otherwise the first occurrence that isn't already
+     * removed is, looking for an identical element and then for an equal one.
+     *
      * @see org.springframework.security.acls.afterinvocation.Filterer#remove(java.lang.Object)
      */
     @Override
     public void remove( T object ) {
-        removeList.add( object );
+        if ( cursor >= 0 && object == current ) {
+            removed.set( cursor );
+            return;
+        }
+        int i = 0;
+        int equal = -1;
+        for ( T o : collection ) {
+            if ( !removed.get( i ) ) {
+                if ( o == object ) {
+                    removed.set( i );
+                    return;
+                }
+                if ( equal < 0 && o != null && o.equals( object ) ) {
+                    equal = i;
+                }
+            }
+            i++;
+        }
+        if ( equal >= 0 ) {
+            removed.set( equal );
+        }
     }
 }
@@ -31,7 +31,10 @@ import org.apache.commons.logging.LogFactory;
  *
  * @author Paul, modeled after Acegi code
  * @version $Id: MapFilterer.java,v 1.3 2012/05/27 02:58:03 paul Exp $
+ * @deprecated no longer used; the map providers filter the map in place, checking all keys in one bulk call. To be
+ *             removed.
  */
+@Deprecated
 public class MapFilterer<T> implements Filterer<T> {
 
     protected static final Log logger = LogFactory.getLog( MapFilterer.class );
@@ -30,7 +30,10 @@ import org.apache.commons.logging.LogFactory;
  * @author paul
  * @version $Id: MapValueFilterer.java,v 1.2 2012/05/27 02:58:03 paul Exp $
  * @param <T> the type of value (Object is fine)
+ * @deprecated no longer used; the map providers filter the map in place, checking all values in one bulk call. To be
+ *             removed.
  */
+@Deprecated
 public class MapValueFilterer<T> implements Filterer<T> {
 
     protected static final Log logger = LogFactory.getLog( MapFilterer.class );
@@ -0,0 +1,145 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec.acl.afterinvocation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.acls.afterinvocation.AbstractAclProvider;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.core.Authentication;
+
+import gemma.gsec.SecurityService;
+import gemma.gsec.SecuritySummary;
+import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
+import gemma.gsec.model.Securable;
+
+/**
+ * Base for the providers that filter on ownership, visibility and permission together (the "my data" lists). The
+ * SIDs are resolved and the ACLs loaded once for the whole return value, and each securable is then kept or removed
+ * according to its {@link SecuritySummary}, in one pass. Elements that aren't securable are kept; securables without an
+ * ACL are removed.
+ *
+ * @author paul
+ * @version $Id$
+ */
+public abstract class SecuritySummaryFilteringProvider extends AbstractAclProvider {
+
+    private static Log log = LogFactory.getLog( SecuritySummaryFilteringProvider.class );
+
+    @Autowired
+    private SecurityService securityService;
+
+    /**
+     * @param aclService
+     * @param processConfigAttribute
+     * @param requirePermission used to work out {@link SecuritySummary#isReadable()}
+     */
+    public SecuritySummaryFilteringProvider( AclService aclService, String processConfigAttribute,
+            List<Permission> requirePermission ) {
+        super( aclService, processConfigAttribute, requirePermission );
+        this.setObjectIdentityRetrievalStrategy( new ValueObjectAwareIdentityRetrievalStrategyImpl() );
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.security.access.AfterInvocationProvider#decide(org.springframework.security.core.
+     * Authentication, java.lang.Object, java.util.Collection, java.lang.Object)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public final Object decide( Authentication authentication, Object object, Collection<ConfigAttribute> config,
+            Object returnedObject ) throws AccessDeniedException {
+
+        for ( ConfigAttribute attr : config ) {
+            if ( !this.supports( attr ) ) {
+                continue;
+            }
+
+            // Need to process the Collection for this invocation
+            if ( returnedObject == null ) {
+                log.debug( "Return object is null, skipping" );
+                return null;
+            }
+
+            Filterer<Object> filterer = null;
+
+            boolean wasSingleton = false;
+            if ( returnedObject instanceof Collection ) {
+                Collection<Object> collection = ( Collection<Object> ) returnedObject;
+                filterer = new CollectionFilterer<>( collection );
+            } else if ( returnedObject.getClass().isArray() ) {
+                Object[] array = ( Object[] ) returnedObject;
+                filterer = new ArrayFilterer<>( array );
+            } else {
+                // shortcut, just put the object in a collection. (PP)
+                wasSingleton = true;
+                Collection<Object> coll = new HashSet<>();
+                coll.add( returnedObject );
+                filterer = new CollectionFilterer<>( coll );
+            }
+
+            /*
+             * Collect up the securables, keeping positions aligned with the filterer.
+             */
+            List<Securable> securables = new ArrayList<>();
+            for ( Object o : filterer ) {
+                securables.add( o instanceof Securable ? ( Securable ) o : null );
+            }
+
+            List<SecuritySummary> summaries = securityService.getSecuritySummaries( securables,
+                    this.requirePermission, authentication );
+
+            int i = 0;
+            for ( Object o : filterer ) {
+                SecuritySummary summary = summaries.get( i );
+                if ( securables.get( i ) != null && ( summary == null || !isKept( summary ) ) ) {
+                    filterer.remove( o );
+                }
+                i++;
+            }
+
+            if ( wasSingleton ) {
+                if ( ( ( Collection<Object> ) filterer.getFilteredObject() ).size() == 1 ) {
+                    return ( ( Collection<Object> ) filterer.getFilteredObject() ).iterator().next();
+                }
+                return null;
+
+            }
+            return filterer.getFilteredObject();
+        }
+
+        return returnedObject;
+    }
+
+    /**
+     * @param summary for a securable, never null
+     * @return true if the securable is to be kept
+     */
+    protected abstract boolean isKept( SecuritySummary summary );
+}
@@ -0,0 +1,57 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec.acl.domain;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/**
+ * Published by the {@link AclService} when an ACL is updated or deleted, so that anything computed from it can be
+ * refreshed.
+ *
+ * @author paul
+ * @version $Id$
+ */
+public class AclChangedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 6519203317245470528L;
+
+    private final ObjectIdentity objectIdentity;
+
+    /**
+     * @param source the object publishing the event
+     * @param objectIdentity of the ACL that changed, or null if any number of ACLs may have
+     */
+    public AclChangedEvent( Object source, ObjectIdentity objectIdentity ) {
+        super( source );
+        this.objectIdentity = objectIdentity;
+    }
+
+    /**
+     * @return the identity of the ACL that changed, or null if any number of ACLs may have changed.
+     */
+    public ObjectIdentity getObjectIdentity() {
+        return objectIdentity;
+    }
+
+    @Override
+    public String toString() {
+        return "AclChangedEvent[" + objectIdentity + "]";
+    }
+}
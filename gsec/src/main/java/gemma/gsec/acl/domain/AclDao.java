@@ -15,6 +15,7 @@
 package gemma.gsec.acl.domain;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 import org.hibernate.SessionFactory;
@@ -43,8 +44,25 @@ public interface AclDao extends LookupStrategy {
 
     public AclSid findOrCreate( Sid sid );
 
+    /**
+     * Change the owner of the ACLs with batched updates of the object identities (executed immediately), and evict the
+     * affected subtrees from the cache.
+     *
+     * @param acls
+     * @param owner will be created if needed
+     */
+    public void setOwner( Collection<? extends MutableAcl> acls, Sid owner );
+
     public void setSessionFactory( SessionFactory sessionFactory );
 
     public void update( MutableAcl acl );
 
+    /**
+     * Bulk version of {@link #update(MutableAcl)}: only the given ACLs are written (not their parents), the changes go
+     * out together when the session is flushed, and the cache is evicted once for each affected subtree.
+     *
+     * @param acls
+     */
+    public void update( Collection<? extends MutableAcl> acls );
+
 }
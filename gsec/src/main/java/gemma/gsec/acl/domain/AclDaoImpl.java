@@ -316,6 +316,38 @@ public class AclDaoImpl implements AclDao {
         return result;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.acl.domain.AclDao#setOwner(java.util.Collection, org.springframework.security.acls.model.Sid)
+     */
+    @Override
+    public void setOwner( Collection<? extends MutableAcl> acls, Sid owner ) {
+        if ( acls.isEmpty() ) return;
+
+        AclSid ownerSid = this.findOrCreate( owner );
+
+        List<Long> ids = new ArrayList<>();
+        List<AclObjectIdentity> objectIdentities = new ArrayList<>();
+        for ( MutableAcl acl : acls ) {
+            acl.setOwner( ownerSid );
+            ids.add( ( Long ) acl.getId() );
+            objectIdentities.add( ( AclObjectIdentity ) acl.getObjectIdentity() );
+        }
+
+        Session session = this.getSessionFactory().getCurrentSession();
+        for ( int i = 0; i < ids.size(); i += batchSize ) {
+            session.createQuery( "update AclObjectIdentity set ownerSid = :sid where id in (:ids)" )
+                    .setParameter( "sid", ownerSid )
+                    .setParameterList( "ids", ids.subList( i, Math.min( i + batchSize, ids.size() ) ) )
+                    .executeUpdate();
+        }
+
+        evictFromCache( objectIdentities );
+
+        if ( log.isDebugEnabled() ) log.debug( "Changed owner of " + ids.size() + " acls to " + owner );
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -375,6 +407,42 @@ public class AclDaoImpl implements AclDao {
             log.trace( " >>>>>>>>>> Done with database update of acl for: " + acl.getObjectIdentity() );
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.acl.domain.AclDao#update(java.util.Collection)
+     */
+    @Override
+    public void update( Collection<? extends MutableAcl> acls ) {
+        if ( acls.isEmpty() ) return;
+
+        Session session = this.getSessionFactory().getCurrentSession();
+
+        /*
+         * As for a single update, nothing is written until the transaction commits; everything then goes out in the
+         * one flush (batched, if the session factory has a JDBC batch size).
+         */
+        session.setFlushMode( FlushMode.COMMIT );
+
+        List<AclObjectIdentity> updated = new ArrayList<>();
+        for ( MutableAcl acl : acls ) {
+            /*
+             * The parent link is already on the object identity as loaded, and the parents themselves haven't
+             * changed, so unlike update(MutableAcl) we don't write them again.
+             */
+            AclObjectIdentity aclObjectIdentity = ( AclObjectIdentity ) session.merge( convert( acl ) );
+            updated.add( aclObjectIdentity );
+        }
+
+        evictFromCache( updated );
+
+        for ( AclObjectIdentity aclObjectIdentity : updated ) {
+            this.aclCache.putInCache( convertToAcl( aclObjectIdentity ) );
+        }
+
+        if ( log.isDebugEnabled() ) log.debug( "Updated " + updated.size() + " acls" );
+    }
+
     /**
      * @param acl
      * @return synched-up and partly updated AclObjectIdentity
@@ -383,7 +451,6 @@ public class AclDaoImpl implements AclDao {
         assert acl instanceof AclImpl;
         assert acl.getObjectIdentity() instanceof AclObjectIdentity;
 
-        // these come back with the ace_order filled in.
         List<AccessControlEntry> entriesFromAcl = acl.getEntries();
 
         // repopulate the ID of the SIDs. May not have any if this is a secured child.
@@ -417,8 +484,11 @@ public class AclDaoImpl implements AclDao {
          */
         Collection<AclEntry> entriesToUpdate = aclObjectIdentity.getEntries();
         entriesToUpdate.clear();
+        int aceOrder = 0;
         for ( AccessControlEntry accessControlEntry : entriesFromAcl ) {
-            entriesToUpdate.add( ( AclEntry ) accessControlEntry );
+            AclEntry aclEntry = ( AclEntry ) accessControlEntry;
+            aclEntry.setAceOrder( aceOrder++ );
+            entriesToUpdate.add( aclEntry );
         }
 
         return aclObjectIdentity;
@@ -452,6 +522,36 @@ public class AclDaoImpl implements AclDao {
         }
     }
 
+    /**
+     * Evict the given object identities and all their descendants, one level at a time, looking up the children of each
+     * level in batches; each object identity is evicted once even if the subtrees overlap.
+     *
+     * @param aclObjectIdentities persistent
+     */
+    private void evictFromCache( Collection<AclObjectIdentity> aclObjectIdentities ) {
+        Set<Long> seen = new HashSet<>();
+        List<AclObjectIdentity> level = new ArrayList<>( aclObjectIdentities );
+        while ( !level.isEmpty() ) {
+            List<Long> ids = new ArrayList<>();
+            for ( AclObjectIdentity oi : level ) {
+                if ( !seen.add( oi.getId() ) ) continue;
+                this.aclCache.evictFromCache( oi );
+                ids.add( oi.getId() );
+            }
+
+            List<AclObjectIdentity> children = new ArrayList<>();
+            for ( int i = 0; i < ids.size(); i += batchSize ) {
+                List<?> batch = this.getSessionFactory().getCurrentSession()
+                        .createQuery( "from AclObjectIdentity o where o.parentObject.id in (:ids)" )
+                        .setParameterList( "ids", ids.subList( i, Math.min( i + batchSize, ids.size() ) ) ).list();
+                for ( Object o : batch ) {
+                    children.add( ( AclObjectIdentity ) o );
+                }
+            }
+            level = children;
+        }
+    }
+
     /**
      * Looks up a batch of <code>ObjectIdentity</code>s directly from the database, when we only know the type and
      * object's id (not the objectIdentity PK).
@@ -542,9 +642,6 @@ public class AclDaoImpl implements AclDao {
                         parentIdsToLookup.add( new Long( parentObjectIdentity.getId() ) );
 
                         parentAcl = new AclImpl( parentObjectIdentity, aclAuthorizationStrategy, /* parent acl */null );
-
-                        parentAcl.getEntries()
-                                .addAll( AclEntry.convert( new ArrayList<>( oi.getEntries() ), parentAcl ) );
                     } else {
                         parentAcl = ( AclImpl ) cachedParent;
 
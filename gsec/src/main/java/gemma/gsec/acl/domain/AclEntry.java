@@ -22,6 +22,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.springframework.security.acls.domain.AccessControlEntryImpl;
@@ -42,11 +44,41 @@ public class AclEntry implements AccessControlEntry, Comparable<AclEntry> {
 
     private static PermissionFactory permissionFactory = new DefaultPermissionFactory();
 
+    /*
+     * Permissions are immutable, so all entries share one instance per mask. Masks made of the base permissions are
+     * prebuilt; any others are built on first use.
+     */
+    private static final Permission[] basePermissionsByMask = new Permission[32];
+
+    private static final ConcurrentMap<Integer, Permission> otherPermissionsByMask = new ConcurrentHashMap<>();
+
+    static {
+        for ( int m = 0; m < basePermissionsByMask.length; m++ ) {
+            basePermissionsByMask[m] = permissionFactory.buildFromMask( m );
+        }
+    }
+
     /**
      * The serial version UID of this class. Needed for serialization.
      */
     private static final long serialVersionUID = -4697361841061166973L;
 
+    /**
+     * @param mask
+     * @return the shared Permission instance for the mask
+     */
+    public static Permission permissionFor( int mask ) {
+        if ( mask >= 0 && mask < basePermissionsByMask.length ) {
+            return basePermissionsByMask[mask];
+        }
+        Permission p = otherPermissionsByMask.get( mask );
+        if ( p == null ) {
+            p = permissionFactory.buildFromMask( mask );
+            otherPermissionsByMask.putIfAbsent( mask, p );
+        }
+        return p;
+    }
+
     /**
      * @param entries
      * @param acl to be associated with the AccessControlEntries
@@ -61,7 +93,7 @@ public class AclEntry implements AccessControlEntry, Comparable<AclEntry> {
         return result;
     }
 
-    final private Integer aceOrder = null;
+    private Integer aceOrder = null;
 
     final private Acl acl = null;
 
@@ -102,7 +134,7 @@ public class AclEntry implements AccessControlEntry, Comparable<AclEntry> {
      * @return
      */
     final public AccessControlEntry convert( Acl a ) {
-        return new AccessControlEntryImpl( this.id, a, this.sid, permissionFactory.buildFromMask( this.mask ),
+        return new AccessControlEntryImpl( this.id, a, this.sid, permissionFor( this.mask ),
                 this.granting, false, false );
     }
 
@@ -170,7 +202,7 @@ public class AclEntry implements AccessControlEntry, Comparable<AclEntry> {
 
     @Override
     public Permission getPermission() {
-        return permissionFactory.buildFromMask( mask );
+        return permissionFor( mask );
     }
 
     /**
@@ -204,6 +236,15 @@ public class AclEntry implements AccessControlEntry, Comparable<AclEntry> {
         return this.granting.booleanValue();
     }
 
+    /**
+     * Only to be set when the entry is about to be persisted, from its position in the owning ACL.
+     *
+     * @param aceOrder
+     */
+    void setAceOrder( Integer aceOrder ) {
+        this.aceOrder = aceOrder;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -211,7 +252,7 @@ public class AclEntry implements AccessControlEntry, Comparable<AclEntry> {
         sb.append( "id: " ).append( this.id ).append( "; " );
         sb.append( "granting: " ).append( this.granting ).append( "; " );
         sb.append( "sid: " ).append( this.sid ).append( "; " );
-        sb.append( "permission: " ).append( permissionFactory.buildFromMask( mask ) ).append( "; " );
+        sb.append( "permission: " ).append( permissionFor( mask ) ).append( "; " );
         sb.append( "]" );
 
         return sb.toString();
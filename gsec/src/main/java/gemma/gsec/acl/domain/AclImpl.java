@@ -16,10 +16,13 @@ package gemma.gsec.acl.domain;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
 import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.NotFoundException;
@@ -30,6 +33,8 @@ import org.springframework.security.acls.model.Sid;
 import org.springframework.security.acls.model.UnloadedSidException;
 import org.springframework.util.Assert;
 
+import gemma.gsec.AuthorityConstants;
+
 /**
  * Represents an access control list (ACL) for a domain object. Based on spring-security AclImpl.
  *
@@ -47,6 +52,21 @@ public class AclImpl implements OwnershipAcl {
     private AclObjectIdentity objectIdentity;
     private AclImpl parentAcl;
 
+    /*
+     * State derived from the entries and the owner, so that visibility and ownership checks don't have to scan the
+     * entries each time. Recomputed on construction and whenever the entries or owner change; see refreshDerivedState.
+     */
+    private boolean grantsAnonymousRead;
+    private boolean grantsGroupRead;
+    private boolean ownedByAdminGroup;
+    private String ownerPrincipal;
+
+    /*
+     * The entries flattened into arrays, for evaluating many ACLs against the same permissions and SIDs. Replaced as a
+     * whole when the entries change, so readers always see a consistent snapshot.
+     */
+    private transient volatile CompactEntries compactEntries;
+
     /**
      * Full constructor
      *
@@ -67,6 +87,7 @@ public class AclImpl implements OwnershipAcl {
         this.entries = new ArrayList<>( objectIdentity.getEntries() );
         this.aclAuthorizationStrategy = aclAuthorizationStrategy;
         this.parentAcl = parentAcl; // may be null
+        refreshDerivedState();
     }
 
     /**
@@ -83,6 +104,7 @@ public class AclImpl implements OwnershipAcl {
 
         synchronized ( entries ) {
             this.entries.remove( aceIndex );
+            refreshDerivedState();
         }
     }
 
@@ -129,22 +151,13 @@ public class AclImpl implements OwnershipAcl {
         return false;
     }
 
+    /**
+     * @return a read-only view of the entries, in order. It reflects later changes made through this ACL, so callers
+     *         that modify the ACL while iterating should take a copy.
+     */
     @Override
     public List<AccessControlEntry> getEntries() {
-
-        // populate the ace_order.
-        int i = 0;
-        try {
-            for ( AclEntry e : entries ) {
-                FieldUtils.writeField( e, "aceOrder", i, true );
-                // e.setAceOrder( i );
-                i++;
-            }
-        } catch ( IllegalAccessException e ) {
-
-        }
-
-        return new ArrayList<AccessControlEntry>( entries );
+        return Collections.<AccessControlEntry> unmodifiableList( entries );
     }
 
     @Override
@@ -170,6 +183,13 @@ public class AclImpl implements OwnershipAcl {
         return this.objectIdentity.getOwnerSid();
     }
 
+    /**
+     * @return the user name of the owner, or null if the owner is not a principal (e.g. it is a group authority).
+     */
+    public String getOwnerPrincipal() {
+        return ownerPrincipal;
+    }
+
     @Override
     public AclImpl getParentAcl() {
         return parentAcl;
@@ -206,6 +226,7 @@ public class AclImpl implements OwnershipAcl {
         int osize = entries.size();
         synchronized ( entries ) {
             this.entries.add( atIndexLocation, ace );
+            refreshDerivedState();
         }
 
         assert this.entries.size() == osize + 1;
@@ -216,6 +237,19 @@ public class AclImpl implements OwnershipAcl {
         return this.objectIdentity.getEntriesInheriting();
     }
 
+    /**
+     * @param permissions
+     * @return the masks of the permissions, in the same order
+     */
+    public static int[] toMasks( List<Permission> permissions ) {
+        int[] masks = new int[permissions.size()];
+        int i = 0;
+        for ( Permission p : permissions ) {
+            masks[i++] = p.getMask();
+        }
+        return masks;
+    }
+
     /**
      * Determines authorization. The order of the <code>permission</code> and <code>sid</code> arguments is
      * <em>extremely important</em>! The method will iterate through each of the <code>permission</code>s in the order
@@ -255,66 +289,131 @@ public class AclImpl implements OwnershipAcl {
             throw new UnloadedSidException( "ACL was not loaded for one or more SID" );
         }
 
-        AccessControlEntry firstRejection = null;
-
-        for ( Permission p : permission ) {
-            for ( Sid sid : sids ) {
-                assert sid instanceof AclSid;
-
-                // Attempt to find exact match for this permission mask and SID
-                boolean scanNextSid = true;
+        return isGranted( toMasks( permission ), sids.toArray( new Sid[sids.size()] ) );
+    }
 
-                for ( AccessControlEntry ace : entries ) {
+    /**
+     * Same decision as {@link #isGranted(List, List, boolean)}, for callers that evaluate many ACLs against the same
+     * permissions and SIDs and so convert them only once.
+     *
+     * @param masks the permission masks to scan for (order is important)
+     * @param sids the exact SIDs to scan for (order is important)
+     * @return true if one of the permissions has been granted
+     * @see #toMasks(List)
+     */
+    public boolean isGranted( int[] masks, Sid[] sids ) {
+        CompactEntries c = getCompactEntries();
 
-                    assert ace instanceof AclEntry;
+        boolean rejected = false;
 
-                    if ( ( ace.getPermission().getMask() == p.getMask() ) && ace.getSid().equals( sid ) ) {
+        for ( int mask : masks ) {
+            sidLoop: for ( Sid sid : sids ) {
+                for ( int i = 0; i < c.masks.length; i++ ) {
+                    if ( c.masks[i] == mask && c.sids[i].equals( sid ) ) {
                         // Found a matching ACE, so its authorization decision will prevail
-                        if ( ace.isGranting() ) {
-                            // Success
+                        if ( c.granting[i] ) {
                             return true;
                         }
 
-                        // Failure for this permission, so stop search
-                        // We will see if they have a different permission
-                        // (this permission is 100% rejected for this SID)
-                        if ( firstRejection == null ) {
-                            // Store first rejection for auditing reasons
-                            firstRejection = ace;
-                        }
-
-                        scanNextSid = false; // helps break the loop
-
-                        break; // exit aces loop
+                        // this permission is 100% rejected; try the next one.
+                        rejected = true;
+                        break sidLoop;
                     }
                 }
-
-                if ( !scanNextSid ) {
-                    break; // exit SID for loop (now try next permission)
-                }
             }
         }
 
-        if ( firstRejection != null ) {
-            // We found an ACE to reject the request at this point, as no
-            // other ACEs were found that granted a different permission
-
+        if ( rejected ) {
             return false;
         }
 
         // No matches have been found so far
         if ( isEntriesInheriting() && ( parentAcl != null ) ) {
-            // We have a parent, so let them try to find a matching ACE
-            return parentAcl.isGranted( permission, sids, false );
+            return parentAcl.isGranted( masks, sids );
         }
 
-        // We either have no parent, or we're the uppermost parent; this can be expected.
-        //        throw new NotFoundException( "Unable to locate a matching ACE for passed permissions and SIDs: " + this
-        //                + "\nPermissions: " + StringUtils.join( permission, "," ) + "\nSIDs: " + StringUtils.join( sids, "," ) );
-        //
         return false;
     }
 
+    /**
+     * "Any of" check: true if any one of the permissions, checked on its own, is granted. This gives the same answer as
+     * calling {@link #isGranted(int[], Sid[])} for each permission separately (so a deny for one permission doesn't
+     * stop another being found on a parent), but looks at the entries of each ACL only once.
+     *
+     * @param masks the permission masks, any of which is enough
+     * @param sids the exact SIDs to scan for (order is important)
+     * @return true if any of the permissions has been granted
+     */
+    public boolean isGrantedAny( int[] masks, Sid[] sids ) {
+        boolean[] decided = new boolean[masks.length];
+        int[] firstSid = new int[masks.length];
+        boolean[] firstGranting = new boolean[masks.length];
+        int undecided = masks.length;
+
+        for ( AclImpl acl = this; acl != null && undecided > 0; acl = acl.isEntriesInheriting() ? acl.parentAcl
+                : null ) {
+            CompactEntries c = acl.getCompactEntries();
+
+            /*
+             * For each undecided permission, find the entry for the earliest SID; for a given SID the first entry
+             * prevails, as in isGranted.
+             */
+            Arrays.fill( firstSid, sids.length );
+            for ( int i = 0; i < c.masks.length; i++ ) {
+                for ( int k = 0; k < masks.length; k++ ) {
+                    if ( decided[k] || c.masks[i] != masks[k] ) continue;
+                    for ( int j = 0; j < firstSid[k]; j++ ) {
+                        if ( c.sids[i].equals( sids[j] ) ) {
+                            firstSid[k] = j;
+                            firstGranting[k] = c.granting[i];
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for ( int k = 0; k < masks.length; k++ ) {
+                if ( decided[k] || firstSid[k] == sids.length ) continue;
+                if ( firstGranting[k] ) {
+                    return true;
+                }
+                // denied at this level, so the parents don't matter for this permission.
+                decided[k] = true;
+                undecided--;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the owner is the administrator group authority.
+     */
+    public boolean isOwnedByAdminGroup() {
+        return ownedByAdminGroup;
+    }
+
+    /**
+     * Equivalent to the negation of {@link gemma.gsec.util.SecurityUtil#isPrivate(Acl)}, without scanning the entries.
+     *
+     * @return true if this ACL, or a parent it inherits entries from, grants READ to anonymous users.
+     */
+    public boolean isPublic() {
+        if ( grantsAnonymousRead ) return true;
+        return isEntriesInheriting() && parentAcl != null && parentAcl.isPublic();
+    }
+
+    /**
+     * Equivalent to {@link gemma.gsec.util.SecurityUtil#isShared(Acl)}, without scanning the entries.
+     *
+     * @return true if this ACL, or a parent it inherits entries from, grants READ to at least one group that is not
+     *         admin or agent.
+     */
+    public boolean isShared() {
+        if ( grantsGroupRead ) return true;
+        return isEntriesInheriting() && parentAcl != null && parentAcl.isShared();
+    }
+
     @Override
     public boolean isSidLoaded( List<Sid> sids ) {
         // // If loadedSids is null, this indicates all SIDs were loaded
@@ -354,6 +453,7 @@ public class AclImpl implements OwnershipAcl {
         aclAuthorizationStrategy.securityCheck( this, AclAuthorizationStrategy.CHANGE_OWNERSHIP );
         Assert.notNull( newOwner, "Owner required" );
         this.objectIdentity.setOwnerSid( newOwner );
+        refreshDerivedState();
     }
 
     @Override
@@ -406,13 +506,61 @@ public class AclImpl implements OwnershipAcl {
         synchronized ( entries ) {
             AclEntry ace = entries.get( aceIndex );
             try {
-                FieldUtils.writeField( ace, "permission", permission );
+                FieldUtils.writeField( ace, "mask", permission.getMask(), true );
             } catch ( IllegalAccessException e ) {
                 e.printStackTrace();
             }
+            refreshDerivedState();
         }
     }
 
+    /**
+     * Recompute the flags derived from this ACL's own entries and owner. Flags that depend on the parent are resolved
+     * when read, since the parent can change independently.
+     */
+    private void refreshDerivedState() {
+        boolean anonymousRead = false;
+        boolean groupRead = false;
+        for ( AclEntry ace : entries ) {
+            if ( !ace.isGranting() || ace.getMask() == null || ace.getMask() != BasePermission.READ.getMask() ) continue;
+
+            Sid sid = ace.getSid();
+            if ( !( sid instanceof AclGrantedAuthoritySid ) ) continue;
+
+            String grantedAuthority = ( ( AclGrantedAuthoritySid ) sid ).getGrantedAuthority();
+            if ( grantedAuthority.equals( AuthorityConstants.IS_AUTHENTICATED_ANONYMOUSLY ) ) {
+                anonymousRead = true;
+            } else if ( grantedAuthority.startsWith( "GROUP_" )
+                    && !grantedAuthority.equals( AuthorityConstants.AGENT_GROUP_AUTHORITY )
+                    && !grantedAuthority.equals( AuthorityConstants.ADMIN_GROUP_AUTHORITY ) ) {
+                groupRead = true;
+            }
+        }
+        this.grantsAnonymousRead = anonymousRead;
+        this.grantsGroupRead = groupRead;
+        this.compactEntries = new CompactEntries( entries );
+
+        Sid owner = objectIdentity.getOwnerSid();
+        this.ownerPrincipal = owner instanceof AclPrincipalSid ? ( ( AclPrincipalSid ) owner ).getPrincipal() : null;
+        this.ownedByAdminGroup = owner instanceof AclGrantedAuthoritySid
+                && AuthorityConstants.ADMIN_GROUP_AUTHORITY.equals( ( ( AclGrantedAuthoritySid ) owner )
+                        .getGrantedAuthority() );
+    }
+
+    /**
+     * @return the compact entries, rebuilt if they were lost in serialization.
+     */
+    private CompactEntries getCompactEntries() {
+        CompactEntries c = this.compactEntries;
+        if ( c == null ) {
+            synchronized ( entries ) {
+                c = new CompactEntries( entries );
+            }
+            this.compactEntries = c;
+        }
+        return c;
+    }
+
     private void verifyAceIndexExists( int aceIndex ) {
         if ( aceIndex < 0 ) {
             throw new NotFoundException( "aceIndex must be greater than or equal to zero" );
@@ -422,4 +570,27 @@ public class AclImpl implements OwnershipAcl {
                     + "List size is " + entries.size() + ", index was " + aceIndex );
         }
     }
+
+    /**
+     * Snapshot of the entries as parallel arrays.
+     */
+    private static final class CompactEntries {
+        final boolean[] granting;
+        final int[] masks;
+        final Sid[] sids;
+
+        CompactEntries( List<AclEntry> entries ) {
+            int n = entries.size();
+            this.granting = new boolean[n];
+            this.masks = new int[n];
+            this.sids = new Sid[n];
+            for ( int i = 0; i < n; i++ ) {
+                AclEntry e = entries.get( i );
+                this.granting[i] = e.isGranting();
+                // a null mask matches no permission; 0 keeps it that way
+                this.masks[i] = e.getMask() == null ? 0 : e.getMask();
+                this.sids[i] = e.getSid();
+            }
+        }
+    }
 }
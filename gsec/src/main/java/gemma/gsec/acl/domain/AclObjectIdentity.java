@@ -20,7 +20,6 @@
 package gemma.gsec.acl.domain;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.HashSet;
 
@@ -28,9 +27,9 @@ import org.springframework.security.acls.domain.IdentityUnavailableException;
 import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Sid;
 import org.springframework.util.Assert;
-import org.springframework.util.ClassUtils;
 
 import gemma.gsec.model.Securable;
+import gemma.gsec.util.AccessorCache;
 
 /**
  * TODO Document Me
@@ -83,14 +82,13 @@ public class AclObjectIdentity implements ObjectIdentity {
      */
     public AclObjectIdentity( Object object ) {
 
-        Class<?> typeClass = ClassUtils.getUserClass( object.getClass() );
+        Class<?> typeClass = AccessorCache.getUserClass( object.getClass() );
 
         type = typeClass.getName();
 
         Object result;
         try {
-            Method method = typeClass.getMethod( "getId", new Class[] {} );
-            result = method.invoke( object, new Object[] {} );
+            result = AccessorCache.invoke( typeClass, object, "getId" );
         } catch ( Exception e ) {
             throw new IdentityUnavailableException( "Could not extract identity from object " + object, e );
         }
@@ -14,10 +14,15 @@
  */
 package gemma.gsec.acl.domain;
 
+import java.util.Collection;
+
+import org.springframework.security.acls.model.MutableAcl;
 import org.springframework.security.acls.model.MutableAclService;
 import org.springframework.security.acls.model.Sid;
 
 /**
+ * Implementations publish an {@link AclChangedEvent} whenever an ACL is updated or deleted.
+ *
  * @author paul
  * @version $Id: AclService.java,v 1.1 2013/09/14 16:55:19 paul Exp $
  */
@@ -28,4 +33,21 @@ public interface AclService extends MutableAclService {
      */
     public abstract void deleteSid( Sid sid );
 
+    /**
+     * Change the owner of many ACLs at once: the ACLs are updated in memory, the database with batched updates, and the
+     * cache is evicted once per subtree.
+     *
+     * @param acls
+     * @param owner will be created if needed
+     */
+    public abstract void setOwner( Collection<? extends MutableAcl> acls, Sid owner );
+
+    /**
+     * Bulk version of updateAcl, for when many ACLs are changed together: the changes are written together and the
+     * cache is evicted once per subtree. Parents of the ACLs are not written.
+     *
+     * @param acls
+     */
+    public abstract void updateAcls( Collection<? extends MutableAcl> acls );
+
 }
@@ -19,12 +19,14 @@
 package gemma.gsec.acl.domain;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AlreadyExistsException;
 import org.springframework.security.acls.model.ChildrenExistException;
@@ -56,6 +58,9 @@ public class AclServiceImpl implements AclService {
     @Autowired
     private AclDao aclDao;
 
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
     private TransactionTemplate transactionTemplate;
 
     @Autowired
@@ -119,6 +124,7 @@ public class AclServiceImpl implements AclService {
         assert TransactionSynchronizationManager.isActualTransactionActive();
 
         aclDao.delete( find( objectIdentity ), deleteChildren );
+        applicationEventPublisher.publishEvent( new AclChangedEvent( this, objectIdentity ) );
     }
 
     /**
@@ -132,6 +138,7 @@ public class AclServiceImpl implements AclService {
         assert TransactionSynchronizationManager.isActualTransactionActive();
 
         aclDao.delete( sid );
+        applicationEventPublisher.publishEvent( new AclChangedEvent( this, null ) );
     }
 
     @Override
@@ -228,6 +235,44 @@ public class AclServiceImpl implements AclService {
         } );
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.acl.domain.AclService#setOwner(java.util.Collection,
+     * org.springframework.security.acls.model.Sid)
+     */
+    @Override
+    public void setOwner( Collection<? extends MutableAcl> acls, Sid owner ) {
+        assert TransactionSynchronizationManager.isActualTransactionActive();
+
+        aclDao.setOwner( acls, owner );
+        for ( MutableAcl acl : acls ) {
+            applicationEventPublisher.publishEvent( new AclChangedEvent( this, acl.getObjectIdentity() ) );
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gemma.gsec.acl.domain.AclService#updateAcls(java.util.Collection)
+     */
+    @Override
+    public void updateAcls( final Collection<? extends MutableAcl> acls ) {
+        if ( TransactionSynchronizationManager.isActualTransactionActive() ) {
+            doUpdateAcls( acls );
+            return;
+        }
+
+        transactionTemplate.execute( new TransactionCallback<Object>() {
+            @Override
+            public Object doInTransaction( TransactionStatus status ) {
+                doUpdateAcls( acls );
+                return null;
+            }
+
+        } );
+    }
+
     /**
      * Persist
      *
@@ -292,9 +337,24 @@ public class AclServiceImpl implements AclService {
         assert TransactionSynchronizationManager.isActualTransactionActive();
         Assert.notNull( acl.getId(), "Object Identity doesn't provide an identifier" );
         aclDao.update( acl );
+        applicationEventPublisher.publishEvent( new AclChangedEvent( this, acl.getObjectIdentity() ) );
         return acl;
     }
 
+    /**
+     * @param acls
+     */
+    private void doUpdateAcls( Collection<? extends MutableAcl> acls ) {
+        assert TransactionSynchronizationManager.isActualTransactionActive();
+        for ( MutableAcl acl : acls ) {
+            Assert.notNull( acl.getId(), "Object Identity doesn't provide an identifier" );
+        }
+        aclDao.update( acls );
+        for ( MutableAcl acl : acls ) {
+            applicationEventPublisher.publishEvent( new AclChangedEvent( this, acl.getObjectIdentity() ) );
+        }
+    }
+
     private ObjectIdentity find( ObjectIdentity oid ) {
         AclObjectIdentity acloi = aclDao.find( oid );
         return acloi;
@@ -20,9 +20,15 @@ package gemma.gsec.acl.voter;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.logging.Log;
@@ -45,6 +51,7 @@ import org.springframework.util.StringUtils;
 
 import gemma.gsec.acl.AclSidRetrievalStrategyImpl;
 import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
+import gemma.gsec.util.AccessorCache;
 
 /**
  * Customized voter that looks at collections to see if permissions are present for objects contained in the collection;
@@ -61,7 +68,8 @@ import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
  * The voting works as follows: The Principal must have the required Permissions on <em>all</em> of the collection's
  * members; otherwise DENIED. ABSTAIN will be returned if it isn't a Collection in the first place. Null collection
  * members are ignored. As with the superclass, an exception will be thrown if the collection members are not of the set
- * processDomainObjectClass type.
+ * processDomainObjectClass type. The SIDs are resolved once and the ACLs of all the members are loaded in one go;
+ * members are then checked in order, stopping at the first denial.
  *
  * @author paul
  * @version $Id: AclCollectionEntryVoter.java,v 1.6 2013/09/14 16:56:03 paul Exp $
@@ -73,6 +81,12 @@ public class AclCollectionEntryVoter extends AbstractAclVoter {
     private static Log logger = LogFactory.getLog( AclCollectionEntryVoter.class );
 
     private AclService aclService;
+
+    /*
+     * Positions of the Collection parameters, by method (or, for join points, signature).
+     */
+    private final ConcurrentMap<Object, int[]> collectionParams = new ConcurrentHashMap<>();
+
     private String internalMethod;
     private ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy = new ValueObjectAwareIdentityRetrievalStrategyImpl();
     private String processConfigAttribute;
@@ -175,48 +189,33 @@ public class AclCollectionEntryVoter extends AbstractAclVoter {
                 continue;
             }
 
-            for ( Object domainObject : coll ) {
+            // Obtain the SIDs applicable to the principal, once.
+            List<Sid> sids = sidRetrievalStrategy.getSids( authentication );
 
-                // If domain object is null, vote to abstain
+            // Obtain the OIDs applicable to the domain objects, in order; null members are ignored.
+            List<Object> domainObjects = new ArrayList<>( coll.size() );
+            List<ObjectIdentity> identities = new ArrayList<>( coll.size() );
+            for ( Object domainObject : coll ) {
                 if ( domainObject == null ) {
                     continue;
                 }
+                domainObject = getInnerDomainObject( domainObject );
+                domainObjects.add( domainObject );
+                identities.add( objectIdentityRetrievalStrategy.getObjectIdentity( domainObject ) );
+            }
 
-                // Evaluate if we are required to use an inner domain object
-                if ( StringUtils.hasText( getInternalMethod() ) ) {
-                    try {
-                        Class<?> clazz = domainObject.getClass();
-                        Method method = clazz.getMethod( getInternalMethod(), new Class[0] );
-                        domainObject = method.invoke( domainObject, new Object[0] );
-                    } catch ( NoSuchMethodException nsme ) {
-                        throw new AuthorizationServiceException( "Object of class '" + domainObject.getClass()
-                                + "' does not provide the requested internalMethod: " + getInternalMethod() );
-                    } catch ( IllegalAccessException iae ) {
-                        logger.debug( "IllegalAccessException", iae );
-
-                        throw new AuthorizationServiceException( "Problem invoking internalMethod: "
-                                + getInternalMethod() + " for object: " + domainObject );
-                    } catch ( InvocationTargetException ite ) {
-                        logger.debug( "InvocationTargetException", ite );
-
-                        throw new AuthorizationServiceException( "Problem invoking internalMethod: "
-                                + getInternalMethod() + " for object: " + domainObject );
-                    }
-                }
-
-                // Obtain the OID applicable to the domain object
-                ObjectIdentity objectIdentity = objectIdentityRetrievalStrategy.getObjectIdentity( domainObject );
+            Map<ObjectIdentity, Acl> acls = readAcls( identities, sids );
 
-                // Obtain the SIDs applicable to the principal
-                List<Sid> sids = sidRetrievalStrategy.getSids( authentication );
+            for ( int i = 0; i < identities.size(); i++ ) {
 
-                Acl acl;
+                ObjectIdentity objectIdentity = identities.get( i );
 
                 // Lookup only ACLs for SIDs we're interested in
-                acl = aclService.readAclById( objectIdentity, sids );
+                Acl acl = acls == null ? aclService.readAclById( objectIdentity, sids ) : acls.get( objectIdentity );
                 if ( acl == null ) {
                     if ( logger.isDebugEnabled() ) {
-                        logger.debug( "Voting to deny access - no ACLs apply for this principal: " + domainObject );
+                        logger.debug( "Voting to deny access - no ACLs apply for this principal: "
+                                + domainObjects.get( i ) );
                     }
                     return ACCESS_DENIED;
                 }
@@ -252,6 +251,56 @@ public class AclCollectionEntryVoter extends AbstractAclVoter {
 
     }
 
+    /**
+     * Evaluate if we are required to use an inner domain object
+     *
+     * @param domainObject
+     * @return the domainObject, or the result of calling the internalMethod on it
+     */
+    private Object getInnerDomainObject( Object domainObject ) {
+        if ( !StringUtils.hasText( getInternalMethod() ) ) {
+            return domainObject;
+        }
+        try {
+            return AccessorCache.invoke( domainObject, getInternalMethod() );
+        } catch ( NoSuchMethodException nsme ) {
+            throw new AuthorizationServiceException( "Object of class '" + domainObject.getClass()
+                    + "' does not provide the requested internalMethod: " + getInternalMethod() );
+        } catch ( IllegalAccessException iae ) {
+            logger.debug( "IllegalAccessException", iae );
+
+            throw new AuthorizationServiceException( "Problem invoking internalMethod: " + getInternalMethod()
+                    + " for object: " + domainObject );
+        } catch ( InvocationTargetException ite ) {
+            logger.debug( "InvocationTargetException", ite );
+
+            throw new AuthorizationServiceException( "Problem invoking internalMethod: " + getInternalMethod()
+                    + " for object: " + domainObject );
+        }
+    }
+
+    /**
+     * @param key the Method, or the CodeSignature of a join point
+     * @return the positions of the Collection parameters, worked out once per method
+     */
+    private int[] getCollectionParams( Object key ) {
+        int[] result = collectionParams.get( key );
+        if ( result == null ) {
+            Class<?>[] params = key instanceof Method ? ( ( Method ) key ).getParameterTypes()
+                    : ( ( CodeSignature ) key ).getParameterTypes();
+            int n = 0;
+            int[] positions = new int[params.length];
+            for ( int i = 0; i < params.length; i++ ) {
+                if ( Collection.class.isAssignableFrom( params[i] ) ) {
+                    positions[n++] = i;
+                }
+            }
+            result = Arrays.copyOf( positions, n );
+            collectionParams.putIfAbsent( key, result );
+        }
+        return result;
+    }
+
     /**
      * Get the collection from the invocation.
      *
@@ -261,38 +310,34 @@ public class AclCollectionEntryVoter extends AbstractAclVoter {
     private Collection<?> getCollectionInstance( Object secureObject ) {
 
         Object[] args;
-        Class<?>[] params;
+        int[] positions;
 
         if ( secureObject instanceof MethodInvocation ) {
             MethodInvocation invocation = ( MethodInvocation ) secureObject;
-            params = invocation.getMethod().getParameterTypes();
+            positions = getCollectionParams( invocation.getMethod() );
             args = invocation.getArguments();
         } else {
             JoinPoint jp = ( JoinPoint ) secureObject;
-            params = ( ( CodeSignature ) jp.getStaticPart().getSignature() ).getParameterTypes();
+            positions = getCollectionParams( jp.getStaticPart().getSignature() );
             args = jp.getArgs();
         }
 
-        for ( int i = 0; i < params.length; i++ ) {
-            if ( Collection.class.isAssignableFrom( params[i] ) ) {
+        for ( int i : positions ) {
+            Collection<?> coll = ( Collection<?> ) args[i];
 
-                Collection<?> coll = ( Collection<?> ) args[i];
-
-                /*
-                 * Inspect the collection: does it contain the right kind of objects. Note: AFAIK there is no way to do
-                 * this using reflection, thanks to erasure.
-                 */
-
-                if ( coll.isEmpty() ) {
-                    continue; // no way to know that it needs to be checked...
-                }
+            /*
+             * Inspect the collection: does it contain the right kind of objects. Note: AFAIK there is no way to do this
+             * using reflection, thanks to erasure.
+             */
 
-                Object o = coll.iterator().next();
+            if ( coll.isEmpty() ) {
+                continue; // no way to know that it needs to be checked...
+            }
 
-                if ( this.getProcessDomainObjectClass().isAssignableFrom( o.getClass() ) ) {
-                    return coll;
-                }
+            Object o = coll.iterator().next();
 
+            if ( this.getProcessDomainObjectClass().isAssignableFrom( o.getClass() ) ) {
+                return coll;
             }
         }
 
@@ -301,4 +346,23 @@ public class AclCollectionEntryVoter extends AbstractAclVoter {
 
     }
 
+    /**
+     * Load the ACLs in one go.
+     *
+     * @param identities
+     * @param sids
+     * @return the ACLs, or null if any is missing; in that case they are read one at a time, in order, so the decision
+     *         (or exception) is the same as if they had been read that way all along.
+     */
+    private Map<ObjectIdentity, Acl> readAcls( List<ObjectIdentity> identities, List<Sid> sids ) {
+        if ( identities.isEmpty() ) {
+            return Collections.emptyMap();
+        }
+        try {
+            return aclService.readAclsById( new ArrayList<>( new LinkedHashSet<>( identities ) ), sids );
+        } catch ( NotFoundException e ) {
+            return null;
+        }
+    }
+
 }
@@ -14,28 +14,79 @@
  */
 package gemma.gsec.acl.voter;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.access.AuthorizationServiceException;
 import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.Permission;
+import org.springframework.util.StringUtils;
 
 import gemma.gsec.acl.AclSidRetrievalStrategyImpl;
 import gemma.gsec.acl.ValueObjectAwareIdentityRetrievalStrategyImpl;
 import gemma.gsec.model.SecuredChild;
+import gemma.gsec.util.AccessorCache;
 
 /**
- * Specialization to allow handling of SecuredChild.
+ * Specialization to allow handling of SecuredChild. The internalMethod, if any, is applied here with a cached accessor
+ * rather than by the superclass, which looks it up reflectively on every vote.
  *
  * @author Paul
  * @version $Id: AclEntryVoter.java,v 1.3 2013/09/14 16:56:02 paul Exp $
  */
 public class AclEntryVoter extends org.springframework.security.acls.AclEntryVoter {
 
+    private static Log logger = LogFactory.getLog( AclEntryVoter.class );
+
+    /*
+     * Which argument to secure, by method; depends on the processDomainObjectClass.
+     */
+    private final ConcurrentMap<Method, ArgumentShape> argumentShapes = new ConcurrentHashMap<>();
+
+    private String internalMethod;
+
     public AclEntryVoter( AclService aclService, String processConfigAttribute, Permission[] requirePermission ) {
         super( aclService, processConfigAttribute, requirePermission );
         this.setObjectIdentityRetrievalStrategy( new ValueObjectAwareIdentityRetrievalStrategyImpl() );
         this.setSidRetrievalStrategy( new AclSidRetrievalStrategyImpl() );
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.security.access.vote.AbstractAclVoter#setProcessDomainObjectClass(java.lang.Class)
+     */
+    @Override
+    public void setProcessDomainObjectClass( Class<?> processDomainObjectClass ) {
+        super.setProcessDomainObjectClass( processDomainObjectClass );
+        argumentShapes.clear();
+    }
+
+    /*
+     * Kept here rather than passed to the superclass, so that it is only applied once, in getDomainObjectInstance.
+     *
+     * @see org.springframework.security.acls.AclEntryVoter#setInternalMethod(java.lang.String)
+     */
+    @Override
+    public void setInternalMethod( String internalMethod ) {
+        this.internalMethod = internalMethod;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.security.acls.AclEntryVoter#getInternalMethod()
+     */
+    @Override
+    protected String getInternalMethod() {
+        return internalMethod;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -43,28 +94,97 @@ public class AclEntryVoter extends org.springframework.security.acls.AclEntryVot
      */
     @Override
     protected Object getDomainObjectInstance( MethodInvocation invocation ) {
-        Object[] args;
-        Class<?>[] params;
+        Object domainObject = getOuterDomainObjectInstance( invocation );
+
+        // Evaluate if we are required to use an inner domain object
+        if ( domainObject == null || !StringUtils.hasText( internalMethod ) ) {
+            return domainObject;
+        }
+        try {
+            return AccessorCache.invoke( domainObject, internalMethod );
+        } catch ( NoSuchMethodException nsme ) {
+            throw new AuthorizationServiceException( "Object of class '" + domainObject.getClass()
+                    + "' does not provide the requested internalMethod: " + internalMethod );
+        } catch ( IllegalAccessException iae ) {
+            logger.debug( "IllegalAccessException", iae );
+
+            throw new AuthorizationServiceException( "Problem invoking internalMethod: " + internalMethod
+                    + " for object: " + domainObject );
+        } catch ( InvocationTargetException ite ) {
+            logger.debug( "InvocationTargetException", ite );
+
+            throw new AuthorizationServiceException( "Problem invoking internalMethod: " + internalMethod
+                    + " for object: " + domainObject );
+        }
+    }
 
-        params = invocation.getMethod().getParameterTypes();
-        args = invocation.getArguments();
+    /**
+     * @param invocation
+     * @return the argument to secure, before any internalMethod is applied; or null
+     */
+    private Object getOuterDomainObjectInstance( MethodInvocation invocation ) {
+        ArgumentShape shape = getArgumentShape( invocation.getMethod() );
+        if ( shape == ArgumentShape.NONE ) {
+            // voter will abstain.
+            return null;
+        }
 
+        Object arg = invocation.getArguments()[shape.index];
+        if ( shape.securedChild ) {
+            return ( ( SecuredChild ) arg ).getSecurityOwner();
+        }
+        return arg;
+    }
+
+    /**
+     * Work out, once per method, which argument is to be secured: the first one of the processDomainObjectClass or,
+     * failing that (special case!), the first SecuredChild.
+     *
+     * @param method
+     * @return
+     */
+    private ArgumentShape getArgumentShape( Method method ) {
+        ArgumentShape shape = argumentShapes.get( method );
+        if ( shape != null ) {
+            return shape;
+        }
+
+        shape = ArgumentShape.NONE;
+        Class<?>[] params = method.getParameterTypes();
         for ( int i = 0; i < params.length; i++ ) {
             if ( getProcessDomainObjectClass().isAssignableFrom( params[i] ) ) {
-                return args[i];
+                shape = new ArgumentShape( i, false );
+                break;
             }
         }
 
-        // Start special case!
-        for ( int i = 0; i < params.length; i++ ) {
-            if ( SecuredChild.class.isAssignableFrom( params[i] ) ) {
-                return ( ( SecuredChild ) args[i] ).getSecurityOwner();
+        if ( shape == ArgumentShape.NONE ) {
+            // Start special case!
+            for ( int i = 0; i < params.length; i++ ) {
+                if ( SecuredChild.class.isAssignableFrom( params[i] ) ) {
+                    shape = new ArgumentShape( i, true );
+                    break;
+                }
             }
         }
 
-        // voter will abstain.
-        return null;
+        argumentShapes.putIfAbsent( method, shape );
+        return shape;
+    }
+
+    /**
+     * Where the argument to secure is, for a given method.
+     */
+    private static class ArgumentShape {
+        static final ArgumentShape NONE = new ArgumentShape( -1, false );
 
+        final int index;
+        final boolean securedChild;
+
+        ArgumentShape( int index, boolean securedChild ) {
+            this.index = index;
+            this.securedChild = securedChild;
+        }
     }
 
 }
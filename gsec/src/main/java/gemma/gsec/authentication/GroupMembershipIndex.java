@@ -0,0 +1,193 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec.authentication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import gemma.gsec.acl.domain.AclGrantedAuthoritySid;
+import gemma.gsec.acl.domain.AclPrincipalSid;
+import gemma.gsec.util.SecurityUtil;
+
+/**
+ * Maps each granted authority, as it appears in ACL SIDs (e.g. GROUP_USER), to the users who hold it, whether through
+ * one of their groups or through the role hierarchy. This lets us answer "who does this ACL grant access to" from the
+ * SIDs in the ACL, instead of evaluating the ACL for every user.
+ * <p>
+ * The index has to cover all users and groups, so it is only built and used for administrators; for anybody else
+ * {@link #getUsersFor(Collection)} returns null, and the caller should check users one at a time, with whatever access
+ * to the users the UserManager gives them. The index is built on demand, dropped whenever a {@link UserManagerEvent}
+ * reports a change, and rebuilt at the latest after {@link #setTimeToLive(int) timeToLive} seconds, since UserManager
+ * implementations may not publish those events.
+ *
+ * @author paul
+ * @version $Id$
+ */
+@Component
+public class GroupMembershipIndex implements ApplicationListener<UserManagerEvent> {
+
+    private static final int DEFAULT_TIME_TO_LIVE = 60;
+
+    private static Log log = LogFactory.getLog( GroupMembershipIndex.class );
+
+    private volatile Index current;
+
+    /*
+     * Incremented on every change, so an index that was being built while a change happened isn't kept.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    private SidRetrievalStrategy sidRetrievalStrategy;
+
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE * 1000L;
+
+    @Autowired
+    private UserManager userManager;
+
+    /**
+     * @param sids typically those of the granting entries of an ACL
+     * @return names of the users who are, or hold, any of the SIDs; principals that are not known users are left out.
+     *         Null if the current user is not an administrator.
+     */
+    public Set<String> getUsersFor( Collection<? extends Sid> sids ) {
+        Index index = getIndex();
+        if ( index == null ) return null;
+        Set<String> result = new HashSet<>();
+        for ( Sid sid : sids ) {
+            if ( sid instanceof AclPrincipalSid ) {
+                String principal = ( ( AclPrincipalSid ) sid ).getPrincipal();
+                if ( index.users.contains( principal ) ) {
+                    result.add( principal );
+                }
+            } else if ( sid instanceof AclGrantedAuthoritySid ) {
+                Set<String> holders = index.usersByAuthority.get( ( ( AclGrantedAuthoritySid ) sid )
+                        .getGrantedAuthority() );
+                if ( holders != null ) {
+                    result.addAll( holders );
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    public void onApplicationEvent( UserManagerEvent event ) {
+        if ( log.isDebugEnabled() ) log.debug( "Dropping group membership index: " + event );
+        generation.incrementAndGet();
+        this.current = null;
+    }
+
+    /**
+     * @param timeToLive how long, in seconds, the index is used before it is rebuilt even if no change was reported;
+     *        default is 60.
+     */
+    public void setTimeToLive( int timeToLive ) {
+        this.timeToLive = timeToLive * 1000L;
+    }
+
+    private Index build() {
+        Set<String> users = new HashSet<>( userManager.findAllUsers() );
+
+        Map<String, Set<String>> usersByAuthority = new HashMap<>();
+        for ( String group : userManager.findAllGroups() ) {
+            List<String> members = userManager.findUsersInGroup( group );
+            if ( members == null || members.isEmpty() ) continue;
+
+            List<GrantedAuthority> authorities = new ArrayList<>();
+            for ( GrantedAuthority ga : userManager.findGroupAuthorities( group ) ) {
+                authorities.add( new SimpleGrantedAuthority( userManager.getRolePrefix() + ga.getAuthority() ) );
+            }
+
+            /*
+             * Expand through the role hierarchy exactly as it is for a member's own authentication.
+             */
+            Authentication asMember = new UsernamePasswordAuthenticationToken( group, null, authorities );
+            for ( Sid sid : sidRetrievalStrategy.getSids( asMember ) ) {
+                if ( !( sid instanceof AclGrantedAuthoritySid ) ) continue;
+                String authority = ( ( AclGrantedAuthoritySid ) sid ).getGrantedAuthority();
+                Set<String> holders = usersByAuthority.get( authority );
+                if ( holders == null ) {
+                    holders = new HashSet<>();
+                    usersByAuthority.put( authority, holders );
+                }
+                holders.addAll( members );
+            }
+        }
+
+        return new Index( users, usersByAuthority );
+    }
+
+    /**
+     * @return the index, or null if the current user is not an administrator
+     */
+    private Index getIndex() {
+        if ( !SecurityUtil.isUserAdmin() ) {
+            return null;
+        }
+
+        Index index = this.current;
+        if ( index == null || System.currentTimeMillis() - index.built > timeToLive ) {
+            long g = generation.get();
+            index = build();
+            if ( generation.get() == g ) {
+                this.current = index;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Immutable snapshot.
+     */
+    private static final class Index {
+        final long built = System.currentTimeMillis();
+        final Set<String> users;
+        final Map<String, Set<String>> usersByAuthority;
+
+        Index( Set<String> users, Map<String, Set<String>> usersByAuthority ) {
+            this.users = Collections.unmodifiableSet( users );
+            this.usersByAuthority = Collections.unmodifiableMap( usersByAuthority );
+        }
+    }
+}
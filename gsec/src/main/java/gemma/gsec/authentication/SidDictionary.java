@@ -0,0 +1,260 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec.authentication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import gemma.gsec.acl.domain.AclGrantedAuthoritySid;
+import gemma.gsec.acl.domain.AclPrincipalSid;
+
+/**
+ * Sorted in-memory dictionary of the SIDs that can be given permissions: the user names, and the authorities of the
+ * groups. It is loaded from the {@link UserManager} on first use, and then kept current from {@link UserManagerEvent}s:
+ * users are added, removed and renamed incrementally, and the authorities of a group are reloaded when the group
+ * changes. If an event doesn't say which user or group changed, everything is loaded again on next use. Since
+ * UserManager implementations may not publish those events, everything is also loaded again once it is older than
+ * {@link #setTimeToLive(int) timeToLive} seconds. A reload builds a new dictionary and then swaps it in, so readers
+ * never see a partly loaded one.
+ * <p>
+ * Loading requires being able to see all users and groups, so the dictionary should only be used by administrators.
+ *
+ * @author paul
+ * @version $Id$
+ */
+@Component
+public class SidDictionary implements ApplicationListener<UserManagerEvent> {
+
+    private static final int DEFAULT_TIME_TO_LIVE = 600;
+
+    private static Log log = LogFactory.getLog( SidDictionary.class );
+
+    /*
+     * Null until loaded, or when it has to be loaded again.
+     */
+    private volatile Dictionary current;
+
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE * 1000L;
+
+    @Autowired
+    private UserManager userManager;
+
+    /**
+     * @return all the SIDs; new instances.
+     */
+    public Collection<Sid> getAll() {
+        return getSids( null, 0, Integer.MAX_VALUE );
+    }
+
+    /**
+     * @param prefix only SIDs whose user name or authority starts with this; null or blank for all
+     * @param offset
+     * @param limit
+     * @return the SIDs in alphabetical order of user name or authority (users first on ties); new instances.
+     */
+    public List<Sid> getSids( String prefix, int offset, int limit ) {
+        if ( offset < 0 || limit < 0 ) {
+            throw new IllegalArgumentException( "Offset and limit must not be negative" );
+        }
+
+        Dictionary d = getDictionary();
+
+        Iterator<String> users = range( d.principals, prefix ).iterator();
+        Iterator<String> auths = range( d.authorities, prefix ).iterator();
+        String user = users.hasNext() ? users.next() : null;
+        String auth = auths.hasNext() ? auths.next() : null;
+
+        /*
+         * Merge the two sorted sets.
+         */
+        List<Sid> result = new ArrayList<>();
+        int i = 0;
+        while ( ( user != null || auth != null ) && result.size() < limit ) {
+            boolean takeUser = auth == null || ( user != null && user.compareTo( auth ) <= 0 );
+            if ( i++ >= offset ) {
+                result.add( takeUser ? new AclPrincipalSid( user ) : new AclGrantedAuthoritySid( auth ) );
+            }
+            if ( takeUser ) {
+                user = users.hasNext() ? users.next() : null;
+            } else {
+                auth = auths.hasNext() ? auths.next() : null;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    public synchronized void onApplicationEvent( UserManagerEvent event ) {
+        Dictionary d = this.current;
+        if ( d == null ) return;
+
+        if ( log.isDebugEnabled() ) log.debug( "Updating sid dictionary: " + event );
+
+        String userName = event.getUserName();
+        String groupName = event.getGroupName();
+        String previousName = event.getPreviousName();
+        switch ( event.getType() ) {
+            case USER_CREATED:
+                if ( userName == null ) break;
+                d.principals.add( userName );
+                return;
+            case USER_DELETED:
+                if ( userName == null ) break;
+                d.principals.remove( userName );
+                return;
+            case USER_RENAMED:
+                if ( userName == null || previousName == null ) break;
+                d.principals.remove( previousName );
+                d.principals.add( userName );
+                return;
+            case GROUP_CREATED:
+            case GROUP_AUTHORITIES_CHANGED:
+                if ( groupName == null ) break;
+                d.setGroupAuthorities( groupName, userManager.findGroupAuthorities( groupName ) );
+                return;
+            case GROUP_DELETED:
+                if ( groupName == null ) break;
+                d.setGroupAuthorities( groupName, Collections.<GrantedAuthority> emptyList() );
+                return;
+            case GROUP_RENAMED:
+                if ( groupName == null || previousName == null ) break;
+                d.setGroupAuthorities( previousName, Collections.<GrantedAuthority> emptyList() );
+                d.setGroupAuthorities( groupName, userManager.findGroupAuthorities( groupName ) );
+                return;
+            default:
+                // memberships and user details don't change the SIDs.
+                return;
+        }
+
+        // we can't tell what changed.
+        this.current = null;
+    }
+
+    /**
+     * @param timeToLive how long, in seconds, the dictionary is used before it is loaded again even if no change was
+     *        reported; default is 600.
+     */
+    public void setTimeToLive( int timeToLive ) {
+        this.timeToLive = timeToLive * 1000L;
+    }
+
+    private Dictionary getDictionary() {
+        Dictionary d = this.current;
+        if ( d != null && System.currentTimeMillis() - d.loaded <= timeToLive ) return d;
+        return load();
+    }
+
+    private synchronized Dictionary load() {
+        Dictionary d = this.current;
+        if ( d != null && System.currentTimeMillis() - d.loaded <= timeToLive ) return d;
+
+        d = new Dictionary();
+        d.principals.addAll( userManager.findAllUsers() );
+        for ( String g : userManager.findAllGroups() ) {
+            d.setGroupAuthorities( g, userManager.findGroupAuthorities( g ) );
+        }
+
+        this.current = d;
+        return d;
+    }
+
+    /**
+     * @param set
+     * @param prefix
+     * @return view of the elements of the set that start with the prefix
+     */
+    private NavigableSet<String> range( NavigableSet<String> set, String prefix ) {
+        if ( StringUtils.isBlank( prefix ) ) return set;
+        return set.subSet( prefix, true, prefix + Character.MAX_VALUE, false );
+    }
+
+    /**
+     * The dictionary itself. Built completely before it is used; after that, only changed one SID or group at a time.
+     */
+    private static final class Dictionary {
+
+        /*
+         * Authorities are shared between groups, so we keep track of which groups have them.
+         */
+        final Map<String, Set<String>> authoritiesByGroup = new HashMap<>();
+
+        final NavigableSet<String> authorities = new ConcurrentSkipListSet<>();
+
+        final long loaded = System.currentTimeMillis();
+
+        final NavigableSet<String> principals = new ConcurrentSkipListSet<>();
+
+        /**
+         * Replace the authorities of the group, dropping any no other group has.
+         *
+         * @param groupName
+         * @param groupAuthorities
+         */
+        void setGroupAuthorities( String groupName, Collection<? extends GrantedAuthority> groupAuthorities ) {
+            Set<String> old = authoritiesByGroup.remove( groupName );
+
+            Set<String> current = new HashSet<>();
+            if ( groupAuthorities != null ) {
+                for ( GrantedAuthority ga : groupAuthorities ) {
+                    current.add( ga.getAuthority() );
+                }
+            }
+            if ( !current.isEmpty() ) {
+                authoritiesByGroup.put( groupName, current );
+                authorities.addAll( current );
+            }
+
+            if ( old == null ) return;
+            for ( String a : old ) {
+                if ( current.contains( a ) ) continue;
+                boolean held = false;
+                for ( Set<String> others : authoritiesByGroup.values() ) {
+                    if ( others.contains( a ) ) {
+                        held = true;
+                        break;
+                    }
+                }
+                if ( !held ) authorities.remove( a );
+            }
+        }
+    }
+}
@@ -28,6 +28,11 @@ import gemma.gsec.model.User;
 import gemma.gsec.model.UserGroup;
 
 /**
+ * Implementations should publish a {@link UserManagerEvent} when users, groups or memberships change (including
+ * createUser, deleteUser, updateUser and renames, with the previous name), so that indexes and caches derived from them
+ * are kept current. Those that don't will see changes once the caches expire (see e.g.
+ * {@link UserSidCache#setTimeToLive(int)}).
+ *
  * @author paul
  * @version $Id: UserManager.java,v 1.15 2013/09/22 18:50:43 paul Exp $
  */
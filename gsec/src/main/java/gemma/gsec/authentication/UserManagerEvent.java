@@ -0,0 +1,106 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec.authentication;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when users, groups or group memberships change, so that anything derived from them (such as the
+ * {@link GroupMembershipIndex}) can be refreshed. UserManager implementations should publish these for changes they
+ * make; the SecurityService publishes them for changes made through it.
+ *
+ * @author paul
+ * @version $Id$
+ */
+public class UserManagerEvent extends ApplicationEvent {
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        GROUP_AUTHORITIES_CHANGED, GROUP_CREATED, GROUP_DELETED, GROUP_RENAMED, MEMBERSHIP_CHANGED, USER_CREATED,
+        USER_DELETED, USER_RENAMED, USER_UPDATED
+    }
+
+    private static final long serialVersionUID = -2318005217402411796L;
+
+    private final String groupName;
+
+    private final String previousName;
+
+    private final Type type;
+
+    private final String userName;
+
+    /**
+     * @param source the object publishing the event
+     * @param type
+     * @param userName the user affected, if any
+     * @param groupName the group affected, if any
+     */
+    public UserManagerEvent( Object source, Type type, String userName, String groupName ) {
+        this( source, type, userName, groupName, null );
+    }
+
+    /**
+     * @param source the object publishing the event
+     * @param type
+     * @param userName the user affected, if any; for USER_RENAMED, the new name
+     * @param groupName the group affected, if any; for GROUP_RENAMED, the new name
+     * @param previousName for USER_RENAMED and GROUP_RENAMED, the old name
+     */
+    public UserManagerEvent( Object source, Type type, String userName, String groupName, String previousName ) {
+        super( source );
+        this.type = type;
+        this.userName = userName;
+        this.groupName = groupName;
+        this.previousName = previousName;
+    }
+
+    /**
+     * @return the group affected, or null
+     */
+    public String getGroupName() {
+        return groupName;
+    }
+
+    /**
+     * @return for renames, the old name of the user or group; otherwise null
+     */
+    public String getPreviousName() {
+        return previousName;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the user affected, or null
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    @Override
+    public String toString() {
+        return "UserManagerEvent[" + type + "; user: " + userName + "; group: " + groupName
+                + ( previousName == null ? "" : "; was: " + previousName ) + "]";
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package gemma.gsec.authentication;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the SIDs of users, as the SidRetrievalStrategy gives them for an authentication of the user, so that
+ * permissions can be checked on behalf of a named user without loading the user each time. The least recently used
+ * entries are dropped once there are more than {@link #setMaxSize(int) maxSize}.
+ * <p>
+ * An entry is dropped when a {@link UserManagerEvent} reports a change to the user or their memberships; changes to
+ * groups drop everything. Since UserManager implementations may not publish those events, and these SIDs decide
+ * access, an entry is also not used for longer than {@link #setTimeToLive(int) timeToLive} seconds.
+ *
+ * @author paul
+ * @version $Id$
+ */
+@Component
+public class UserSidCache implements ApplicationListener<UserManagerEvent> {
+
+    private static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final int DEFAULT_TIME_TO_LIVE = 60;
+
+    private static Log log = LogFactory.getLog( UserSidCache.class );
+
+    private long generation = 0;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    @Autowired
+    private SidRetrievalStrategy sidRetrievalStrategy;
+
+    @Autowired
+    private UserManager userManager;
+
+    private final Map<String, CachedSids> sidsByUser = new LinkedHashMap<String, CachedSids>( 16, 0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, CachedSids> eldest ) {
+            return size() > maxSize;
+        }
+    };
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE * 1000L;
+
+    /**
+     * @param userName
+     * @return the SIDs applicable to the user, including those from the role hierarchy.
+     * @throws org.springframework.security.core.userdetails.UsernameNotFoundException
+     */
+    public List<Sid> getSids( String userName ) {
+        long g;
+        synchronized ( this ) {
+            CachedSids e = sidsByUser.get( userName );
+            if ( e != null ) {
+                if ( System.currentTimeMillis() - e.created <= timeToLive ) return e.sids;
+                sidsByUser.remove( userName );
+            }
+            g = generation;
+        }
+
+        UserDetails user = userManager.loadUserByUsername( userName );
+        Authentication authentication = new UsernamePasswordAuthenticationToken( userName, user.getPassword(),
+                user.getAuthorities() );
+        List<Sid> sids = Collections.unmodifiableList( sidRetrievalStrategy.getSids( authentication ) );
+
+        synchronized ( this ) {
+            // don't keep it if something changed while we were working it out.
+            if ( generation == g ) {
+                sidsByUser.put( userName, new CachedSids( sids ) );
+            }
+        }
+        return sids;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    public synchronized void onApplicationEvent( UserManagerEvent event ) {
+        if ( log.isDebugEnabled() ) log.debug( "Dropping cached SIDs: " + event );
+        generation++;
+        switch ( event.getType() ) {
+            case MEMBERSHIP_CHANGED:
+            case USER_CREATED:
+            case USER_DELETED:
+            case USER_RENAMED:
+            case USER_UPDATED:
+                if ( event.getUserName() != null ) {
+                    sidsByUser.remove( event.getUserName() );
+                    if ( event.getPreviousName() != null ) sidsByUser.remove( event.getPreviousName() );
+                } else {
+                    sidsByUser.clear();
+                }
+                break;
+            default:
+                sidsByUser.clear();
+                break;
+        }
+    }
+
+    /**
+     * @param maxSize the number of users to keep SIDs for; default is 1000.
+     */
+    public synchronized void setMaxSize( int maxSize ) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param timeToLive how long, in seconds, the SIDs of a user are used before they are worked out again; default is
+     *        60.
+     */
+    public synchronized void setTimeToLive( int timeToLive ) {
+        this.timeToLive = timeToLive * 1000L;
+    }
+
+    private static final class CachedSids {
+        final long created = System.currentTimeMillis();
+        final List<Sid> sids;
+
+        CachedSids( List<Sid> sids ) {
+            this.sids = sids;
+        }
+    }
+}
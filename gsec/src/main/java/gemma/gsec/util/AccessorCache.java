@@ -0,0 +1,160 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package gemma.gsec.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
+
+/**
+ * Per-class cache of no-argument accessors (such as getId, or a voter's internalMethod), so calling them is close to a
+ * direct call instead of a reflective lookup and invoke each time. Used for identity extraction and by the voters.
+ * <p>
+ * The caches hold their classes and handles through soft references (as Spring's own reflection caches do), not in
+ * ClassValues: a handle refers to its class, so a strongly held one could keep a web application's class loader alive
+ * after it is undeployed.
+ *
+ * @author paul
+ * @version $Id$
+ */
+public final class AccessorCache {
+
+    /*
+     * Accessors by class, then by method name; a method the class doesn't have is recorded as MISSING.
+     */
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> accessors =
+            new ConcurrentReferenceHashMap<>();
+
+    private static final MethodType GETTER = MethodType.methodType( Object.class, Object.class );
+
+    private static final Object MISSING = new Object();
+
+    private static final ConcurrentMap<Class<?>, Class<?>> userClasses = new ConcurrentReferenceHashMap<>();
+
+    /**
+     * Call a public no-argument method, as looked up on the target's class.
+     *
+     * @param target
+     * @param methodName
+     * @return the result
+     * @throws NoSuchMethodException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException if the method threw
+     */
+    public static Object invoke( Object target, String methodName ) throws NoSuchMethodException,
+            IllegalAccessException, InvocationTargetException {
+        return invoke( target.getClass(), target, methodName );
+    }
+
+    /**
+     * Call a public no-argument method, as looked up on the given class; same as
+     * <code>clazz.getMethod( methodName ).invoke( target )</code>.
+     *
+     * @param clazz the target's class, or a superclass of it
+     * @param target
+     * @param methodName
+     * @return the result
+     * @throws NoSuchMethodException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException if the method threw
+     */
+    public static Object invoke( Class<?> clazz, Object target, String methodName ) throws NoSuchMethodException,
+            IllegalAccessException, InvocationTargetException {
+        MethodHandle handle = getAccessor( clazz, methodName );
+        try {
+            return ( Object ) handle.invokeExact( target );
+        } catch ( Throwable t ) {
+            throw new InvocationTargetException( t );
+        }
+    }
+
+    /**
+     * @param clazz
+     * @return the class, or the user-defined class if it is a CGLIB-generated subclass; see
+     *         {@link ClassUtils#getUserClass(Class)}
+     */
+    public static Class<?> getUserClass( Class<?> clazz ) {
+        Class<?> userClass = userClasses.get( clazz );
+        if ( userClass == null ) {
+            userClass = ClassUtils.getUserClass( clazz );
+            userClasses.putIfAbsent( clazz, userClass );
+        }
+        return userClass;
+    }
+
+    /**
+     * @param clazz
+     * @param methodName
+     * @return handle of type (Object)Object
+     * @throws NoSuchMethodException
+     * @throws IllegalAccessException
+     */
+    private static MethodHandle getAccessor( Class<?> clazz, String methodName ) throws NoSuchMethodException,
+            IllegalAccessException {
+        ConcurrentMap<String, Object> byName = accessors.get( clazz );
+        if ( byName == null ) {
+            byName = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Object> existing = accessors.putIfAbsent( clazz, byName );
+            if ( existing != null ) byName = existing;
+        }
+        Object accessor = byName.get( methodName );
+
+        if ( accessor == null ) {
+            try {
+                accessor = toHandle( clazz.getMethod( methodName ) );
+            } catch ( NoSuchMethodException e ) {
+                accessor = MISSING;
+            }
+            byName.putIfAbsent( methodName, accessor );
+        }
+
+        if ( accessor == MISSING ) {
+            throw new NoSuchMethodException( clazz.getName() + "." + methodName + "()" );
+        }
+        return ( MethodHandle ) accessor;
+    }
+
+    /**
+     * @param method
+     * @return handle of type (Object)Object
+     * @throws IllegalAccessException
+     */
+    private static MethodHandle toHandle( Method method ) throws IllegalAccessException {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect( method );
+        } catch ( IllegalAccessException e ) {
+            // e.g. a public method declared in a non-public class.
+            method.setAccessible( true );
+            handle = MethodHandles.lookup().unreflect( method );
+        }
+
+        if ( Modifier.isStatic( method.getModifiers() ) ) {
+            handle = MethodHandles.dropArguments( handle, 0, Object.class );
+        }
+        return handle.asType( GETTER );
+    }
+
+    private AccessorCache() {
+    }
+}
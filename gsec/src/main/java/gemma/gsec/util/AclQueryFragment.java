@@ -0,0 +1,284 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package gemma.gsec.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Query;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+
+import gemma.gsec.acl.domain.AclGrantedAuthoritySid;
+import gemma.gsec.acl.domain.AclPrincipalSid;
+import gemma.gsec.model.Securable;
+
+/**
+ * A where-clause fragment that keeps only the rows whose ACL grants one of the given permissions to one of the given
+ * SIDs, so that permission filtering, paging and counting can be done in the database instead of after the fact. For
+ * example:
+ *
+ * <pre>
+ * AclQueryFragment f = AclQueryFragment.forHql( &quot;ee&quot;, ExpressionExperimentImpl.class, sids, permissions );
+ * Query q = session.createQuery( &quot;select ee from ExpressionExperimentImpl ee where &quot; + f.getClause() );
+ * f.bind( q ).setMaxResults( 20 ).list();
+ * </pre>
+ * <p>
+ * Entries on the parent ACLs are considered, as long as entries are inherited, up to a fixed number of levels up
+ * ({@link #DEFAULT_INHERITANCE_DEPTH} unless given), since the query can't follow the parents recursively. The in-memory
+ * checks follow parents to any depth, so <strong>the depth must be at least that of the deepest chain of inheriting
+ * parents in use</strong>; otherwise the database will leave out rows that are readable only through a more distant
+ * parent, and pages and counts won't agree with the after-invocation filters. Only granting entries are looked at,
+ * since gsec never writes denying ones. The parameters all start with "acl", so the fragment can only be used once per
+ * query.
+ *
+ * @author paul
+ * @version $Id$
+ */
+public class AclQueryFragment {
+
+    /**
+     * How many levels of parent ACLs are considered, unless otherwise given.
+     */
+    public static final int DEFAULT_INHERITANCE_DEPTH = 2;
+
+    private static final String AUTHORITIES_PARAM = "aclAuthorities";
+
+    private static final String MASKS_PARAM = "aclMasks";
+
+    private static final String PRINCIPALS_PARAM = "aclPrincipals";
+
+    private static final String TYPE_PARAM = "aclType";
+
+    /**
+     * @param alias of the securable entity in the enclosing HQL query
+     * @param clazz the class of the securable, as recorded in the ACL object identities
+     * @param sids typically for the current user
+     * @param permissions any of which is enough
+     * @return
+     */
+    public static AclQueryFragment forHql( String alias, Class<? extends Securable> clazz, List<Sid> sids,
+            List<Permission> permissions ) {
+        return forHql( alias, clazz, sids, permissions, DEFAULT_INHERITANCE_DEPTH );
+    }
+
+    /**
+     * @param alias of the securable entity in the enclosing HQL query
+     * @param clazz the class of the securable, as recorded in the ACL object identities
+     * @param sids typically for the current user
+     * @param permissions any of which is enough
+     * @param inheritanceDepth how many levels of parent ACLs to consider; at least the deepest chain in use
+     * @return
+     */
+    public static AclQueryFragment forHql( String alias, Class<? extends Securable> clazz, List<Sid> sids,
+            List<Permission> permissions, int inheritanceDepth ) {
+        AclQueryFragment f = new AclQueryFragment( clazz, sids, permissions, inheritanceDepth );
+        if ( f.principals.isEmpty() && f.authorities.isEmpty() ) {
+            return f.withClause( "1 = 0" );
+        }
+
+        StringBuilder ace = new StringBuilder();
+        ace.append( "e.granting = true and e.mask in (:" + MASKS_PARAM + ") and (" );
+        if ( !f.principals.isEmpty() ) {
+            ace.append( " e.sid in (select s from AclPrincipalSid s where s.principal in (:" + PRINCIPALS_PARAM
+                    + "))" );
+        }
+        if ( !f.authorities.isEmpty() ) {
+            if ( !f.principals.isEmpty() ) ace.append( " or" );
+            ace.append( " e.sid in (select s from AclGrantedAuthoritySid s where s.grantedAuthority in (:"
+                    + AUTHORITIES_PARAM + "))" );
+        }
+        ace.append( " )" );
+
+        StringBuilder sb = new StringBuilder();
+        sb.append( "exists (select o0.id from AclObjectIdentity o0" );
+        for ( int i = 1; i <= f.inheritanceDepth; i++ ) {
+            sb.append( " left join o" + ( i - 1 ) + ".parentObject o" + i );
+        }
+        sb.append( " where o0.type = :" + TYPE_PARAM + " and o0.identifier = " + alias + ".id and (" );
+        for ( int i = 0; i <= f.inheritanceDepth; i++ ) {
+            if ( i > 0 ) sb.append( " or" );
+            sb.append( " (" );
+            for ( int j = 0; j < i; j++ ) {
+                sb.append( "o" + j + ".entriesInheriting = true and " );
+            }
+            sb.append( "exists (select e.id from AclObjectIdentity x join x.entries e where x = o" + i + " and "
+                    + ace + "))" );
+        }
+        sb.append( " ))" );
+
+        return f.withClause( sb.toString() );
+    }
+
+    /**
+     * @param idColumn the (qualified) column holding the id of the securable in the enclosing SQL query
+     * @param clazz the class of the securable, as recorded in the ACL object identities
+     * @param sids typically for the current user
+     * @param permissions any of which is enough
+     * @return
+     */
+    public static AclQueryFragment forSql( String idColumn, Class<? extends Securable> clazz, List<Sid> sids,
+            List<Permission> permissions ) {
+        return forSql( idColumn, clazz, sids, permissions, DEFAULT_INHERITANCE_DEPTH );
+    }
+
+    /**
+     * @param idColumn the (qualified) column holding the id of the securable in the enclosing SQL query
+     * @param clazz the class of the securable, as recorded in the ACL object identities
+     * @param sids typically for the current user
+     * @param permissions any of which is enough
+     * @param inheritanceDepth how many levels of parent ACLs to consider; at least the deepest chain in use
+     * @return
+     */
+    public static AclQueryFragment forSql( String idColumn, Class<? extends Securable> clazz, List<Sid> sids,
+            List<Permission> permissions, int inheritanceDepth ) {
+        AclQueryFragment f = new AclQueryFragment( clazz, sids, permissions, inheritanceDepth );
+        if ( f.principals.isEmpty() && f.authorities.isEmpty() ) {
+            return f.withClause( "1 = 0" );
+        }
+
+        StringBuilder ace = new StringBuilder();
+        ace.append( "e.GRANTING = 1 and e.MASK in (:" + MASKS_PARAM + ") and (" );
+        if ( !f.principals.isEmpty() ) {
+            ace.append( " (s.class = 'PrincipalSid' and s.PRINCIPAL in (:" + PRINCIPALS_PARAM + "))" );
+        }
+        if ( !f.authorities.isEmpty() ) {
+            if ( !f.principals.isEmpty() ) ace.append( " or" );
+            ace.append( " (s.class = 'GrantedAuthoritySid' and s.GRANTED_AUTHORITY in (:" + AUTHORITIES_PARAM
+                    + "))" );
+        }
+        ace.append( " )" );
+
+        StringBuilder sb = new StringBuilder();
+        sb.append( "exists (select 1 from ACLOBJECTIDENTITY o0" );
+        for ( int i = 1; i <= f.inheritanceDepth; i++ ) {
+            sb.append( " left join ACLOBJECTIDENTITY o" + i + " on o" + i + ".ID = o" + ( i - 1 )
+                    + ".PARENT_OBJECT_FK" );
+        }
+        sb.append( " where o0.OBJECT_CLASS = :" + TYPE_PARAM + " and o0.OBJECT_ID = " + idColumn + " and (" );
+        for ( int i = 0; i <= f.inheritanceDepth; i++ ) {
+            if ( i > 0 ) sb.append( " or" );
+            sb.append( " (" );
+            for ( int j = 0; j < i; j++ ) {
+                sb.append( "o" + j + ".ENTRIES_INHERITING = 1 and " );
+            }
+            sb.append( "exists (select 1 from ACLENTRY e join ACLSID s on s.ID = e.SID_FK"
+                    + " where e.OBJECTIDENTITY_FK = o" + i + ".ID and " + ace + "))" );
+        }
+        sb.append( " ))" );
+
+        return f.withClause( sb.toString() );
+    }
+
+    private final List<String> authorities = new ArrayList<>();
+
+    private String clause;
+
+    private final int inheritanceDepth;
+
+    private final List<Integer> masks = new ArrayList<>();
+
+    private final List<String> principals = new ArrayList<>();
+
+    private final String type;
+
+    private AclQueryFragment( Class<? extends Securable> clazz, List<Sid> sids, List<Permission> permissions,
+            int inheritanceDepth ) {
+        if ( inheritanceDepth < 0 ) {
+            throw new IllegalArgumentException( "Inheritance depth must not be negative" );
+        }
+        this.type = clazz.getName();
+        this.inheritanceDepth = inheritanceDepth;
+        for ( Permission p : permissions ) {
+            masks.add( p.getMask() );
+        }
+        for ( Sid sid : sids ) {
+            if ( sid instanceof AclPrincipalSid ) {
+                principals.add( ( ( AclPrincipalSid ) sid ).getPrincipal() );
+            } else if ( sid instanceof PrincipalSid ) {
+                principals.add( ( ( PrincipalSid ) sid ).getPrincipal() );
+            } else if ( sid instanceof AclGrantedAuthoritySid ) {
+                authorities.add( ( ( AclGrantedAuthoritySid ) sid ).getGrantedAuthority() );
+            } else if ( sid instanceof GrantedAuthoritySid ) {
+                authorities.add( ( ( GrantedAuthoritySid ) sid ).getGrantedAuthority() );
+            }
+        }
+        if ( masks.isEmpty() ) {
+            throw new IllegalArgumentException( "At least one permission is required" );
+        }
+    }
+
+    /**
+     * Set the parameters the clause uses.
+     *
+     * @param query HQL or SQL that includes the clause
+     * @return the query
+     */
+    public Query bind( Query query ) {
+        for ( Map.Entry<String, Object> e : getParameters().entrySet() ) {
+            if ( e.getValue() instanceof Collection ) {
+                query.setParameterList( e.getKey(), ( Collection<?> ) e.getValue() );
+            } else {
+                query.setParameter( e.getKey(), e.getValue() );
+            }
+        }
+        return query;
+    }
+
+    /**
+     * @return the boolean expression to put in the where clause
+     */
+    public String getClause() {
+        return clause;
+    }
+
+    /**
+     * @return how many levels of parent ACLs the clause considers
+     */
+    public int getInheritanceDepth() {
+        return inheritanceDepth;
+    }
+
+    /**
+     * @return the named parameters used by the clause
+     */
+    public Map<String, Object> getParameters() {
+        if ( principals.isEmpty() && authorities.isEmpty() ) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( TYPE_PARAM, type );
+        result.put( MASKS_PARAM, masks );
+        if ( !principals.isEmpty() ) result.put( PRINCIPALS_PARAM, principals );
+        if ( !authorities.isEmpty() ) result.put( AUTHORITIES_PARAM, authorities );
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return clause;
+    }
+
+    private AclQueryFragment withClause( String c ) {
+        this.clause = c;
+        return this;
+    }
+}
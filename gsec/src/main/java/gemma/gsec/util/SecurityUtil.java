@@ -29,6 +29,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 
 import gemma.gsec.AuthorityConstants;
 import gemma.gsec.acl.domain.AclGrantedAuthoritySid;
+import gemma.gsec.acl.domain.AclImpl;
 
 /**
  * Database-independent methods for ACLs
@@ -61,6 +62,13 @@ public class SecurityUtil {
      */
     public static boolean isPrivate( Acl acl ) {
 
+        /*
+         * Our own ACLs keep this precomputed.
+         */
+        if ( acl instanceof AclImpl ) {
+            return !( ( AclImpl ) acl ).isPublic();
+        }
+
         /*
          * If the given Acl has anonymous permissions on it, then it can't be private.
          */
@@ -109,6 +117,10 @@ public class SecurityUtil {
      * @return true if the ACL grants READ authority to at least one group that is not admin or agent.
      */
     public static boolean isShared( Acl acl ) {
+        if ( acl instanceof AclImpl ) {
+            return ( ( AclImpl ) acl ).isShared();
+        }
+
         for ( AccessControlEntry ace : acl.getEntries() ) {
 
             if ( !ace.getPermission().equals( BasePermission.READ ) ) continue;